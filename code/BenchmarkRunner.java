@@ -0,0 +1,60 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.benchmarks;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/****************************************************************************
+ * <code>BenchmarkRunner</code> runs the benchmarks in this package with the GC (allocation)
+ * profiler enabled, writing the results as JSON for tracking across builds.
+ * <p>
+ * Usage: <code>BenchmarkRunner [includeRegex [resultFile]]</code>, where the regex defaults to
+ * all of this package's benchmarks, and the result file to a timestamped
+ * <code>jmh-result-*.json</code> in the working directory.
+ * <p>
+ * Limitations: this source tree has no build of its own, hence no JMH module, so the benchmarks
+ * only compile within the platform's build, with <code>jmh-core</code> on the classpath and
+ * <code>jmh-generator-annprocess</code> as an annotation processor, and run from the jar it
+ * produces. Moreover, all but <code>LazyFieldBenchmark</code> need a booted type system, which
+ * they don't boot themselves; since each benchmark runs in a forked JVM, the platform must boot
+ * in the fork (e.g. through its launcher's agent, passed via <code>jvmArgsAppend</code>), or the
+ * benchmarks' setup aborts.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class BenchmarkRunner
+{
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  public static void main(String[] args) throws RunnerException {
+    String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+    String resultFile = args.length > 1 ? args[1]
+        : "jmh-result-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))
+            + ".json";
+
+    Options options = new OptionsBuilder()
+        .include(include)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result(resultFile)
+        .build();
+    new Runner(options).run();
+  }
+
+}
@@ -0,0 +1,230 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import net.ess.ebase.core.spaces.IBulkDeletingSpace;
+import net.ess.ebase.core.spaces.Space;
+import net.ess.ebase.transactions.Transaction;
+import net.ess.ebase.typeSystem.extents.TypeExtent;
+
+/****************************************************************************
+ * <code>BulkDeletion</code> deletes many entities at once, selected by key or by predicate over
+ * a type extent, e.g. for purging expired records.
+ * <p>
+ * Deletion proceeds level by level: the selected entities form the first level, and each
+ * further level is the not-yet-deleted dependents of the previous one, as supplied by the
+ * cascade function, by default {@link MetaEntity#dependents}. Within a level
+ * <ul>
+ * <li>local entities are grouped by primary space; spaces that are
+ * <code>IBulkDeletingSpace</code>s delete each group set-wise, in batches, after revoking the
+ * entities' read leases, while the entities of other spaces are each deleted as by
+ * {@link MetaEntity#deleteIn};</li>
+ * <li>remote entities are grouped by residence, and their keys forwarded to the residence in
+ * batches, all batches being in flight at once.</li>
+ * </ul>
+ * Remote deletions run at their residences in transactions of their own, so they aren't atomic
+ * with the local ones: a remote failure aborts the local transaction, but can't undo batches
+ * other residences have already committed.
+ * Usage:
+ * <pre>
+ *   int n = new BulkDeletion(transaction)
+ *       .where(Order_.extent(), o -> ((Order) o).isExpired())
+ *       .cascadeVia(m -> m.dependents())
+ *       .execute();
+ * </pre>
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class BulkDeletion
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Default number of entities per set-based delete or forwarded batch. */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /* The transaction to delete in, or null to delete in a transaction of its own. */
+  private final Transaction transaction;
+
+  /* The entities selected for deletion. */
+  private final List<MetaEntity> selected = new ArrayList<>();
+
+  /* Maps an entity to the entities that must be deleted along with it. */
+  private Function<MetaEntity, Collection<MetaEntity>> dependents = MetaEntity::dependents;
+
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /* Entities deleted so far, to break cascade cycles. */
+  private final Set<MetaEntity> deleted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public BulkDeletion(Transaction transaction) {
+    this.transaction = transaction;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Selection
+  // ---------------------------
+  /**
+   * Selects the instances in <code>extent</code> whose keys are in <code>keys</code>, looking
+   * each key up in the extent; keys having no instance are ignored.
+   */
+  public BulkDeletion keys(TypeExtent<? extends IEntity> extent, Collection<?> keys) {
+    for(Object key : keys) {
+      IEntity e = extent.withKey(key);
+      if(e != null)
+        selected.add(e.meta());
+    }
+    return this;
+  }
+
+  /**
+   * Selects the instances in <code>extent</code> satisfying <code>predicate</code>.
+   */
+  public <E extends IEntity> BulkDeletion where(TypeExtent<E> extent, Predicate<? super E> predicate) {
+    for(E e : extent) {
+      if(predicate.test(e))
+        selected.add(e.meta());
+    }
+    return this;
+  }
+
+  /**
+   * Selects <code>metas</code>.
+   */
+  public BulkDeletion metas(Collection<? extends MetaEntity> metas) {
+    selected.addAll(metas);
+    return this;
+  }
+
+  /**
+   * Sets the function yielding the dependents that each deleted entity cascades to, replacing
+   * the default, {@link MetaEntity#dependents}.
+   */
+  public BulkDeletion cascadeVia(Function<MetaEntity, Collection<MetaEntity>> dependents) {
+    this.dependents = dependents;
+    return this;
+  }
+
+  /**
+   * Sets the number of entities per set-based delete or forwarded batch.
+   */
+  public BulkDeletion batchSize(int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+    return this;
+  }
+
+  // ---------------------------
+  // Execution
+  // ---------------------------
+  /**
+   * Deletes the selected entities and their cascaded dependents, returning the number deleted.
+   */
+  public int execute() {
+    if(selected.isEmpty())
+      return 0;
+    if(transaction != null) {
+      deleteIn(transaction);
+    } else {
+      selected.get(0).mutator().doAtomically(m -> deleteIn(m.transaction));
+    }
+    return deleted.size();
+  }
+
+  /*
+   * Deletes level by level in <code>t</code>.
+   */
+  private void deleteIn(Transaction t) {
+    List<CompletableFuture<Object>> forwarded = new ArrayList<>();
+    List<MetaEntity> level = selected;
+    while(!level.isEmpty()) {
+      Map<Space, List<MetaEntity>> bySpace = new LinkedHashMap<>();
+      Map<EntityResidence, List<MetaEntity>> byResidence = new LinkedHashMap<>();
+      for(MetaEntity meta : level) {
+        if(!deleted.add(meta))
+          continue;
+        if(meta.isRemote()) {
+          byResidence.computeIfAbsent(meta.residence(), r -> new ArrayList<>()).add(meta);
+        } else {
+          bySpace.computeIfAbsent(meta.space, s -> new ArrayList<>()).add(meta);
+        }
+      }
+
+      bySpace.forEach((space, metas) -> deleteLocal(space, metas, t));
+      byResidence.forEach((residence, metas) -> forwardRemote(metas, forwarded));
+
+      // the next level is the dependents of this one
+      List<MetaEntity> next = new ArrayList<>();
+      for(MetaEntity meta : level) {
+        for(MetaEntity d : dependents.apply(meta)) {
+          if(!deleted.contains(d))
+            next.add(d);
+        }
+      }
+      level = next;
+    }
+
+    // wait for the residences to finish, so that a failure aborts the local transaction; batches
+    // already committed remotely stay deleted
+    CompletableFuture.allOf(forwarded.toArray(new CompletableFuture[0])).join();
+  }
+
+  /*
+   * Deletes <code>metas</code>, all primarily contained in <code>space</code>: set-wise if the
+   * space supports it, revoking their read leases first, else each as by deleteIn.
+   */
+  private void deleteLocal(Space space, List<MetaEntity> metas, Transaction t) {
+    if(space instanceof IBulkDeletingSpace) {
+      for(MetaEntity meta : metas) {
+        synchronized(meta) {
+          meta.revokeReadLeases();
+        }
+      }
+      IBulkDeletingSpace bulkSpace = (IBulkDeletingSpace) space;
+      for(int i = 0; i < metas.size(); i += batchSize)
+        bulkSpace.deleteAll(metas.subList(i, Math.min(metas.size(), i + batchSize)), t);
+    } else {
+      for(MetaEntity meta : metas)
+        meta.deleteIn(t);
+    }
+  }
+
+  /*
+   * Forwards the keys of <code>metas</code>, all residing at the same residence, to the residence
+   * in batches, adding the replies' futures to <code>forwarded</code>.
+   */
+  private void forwardRemote(List<MetaEntity> metas, List<CompletableFuture<Object>> forwarded) {
+    for(int i = 0; i < metas.size(); i += batchSize) {
+      List<MetaEntity> batch = metas.subList(i, Math.min(metas.size(), i + batchSize));
+      Object[] keys = new Object[batch.size()];
+      for(int k = 0; k < keys.length; k++)
+        keys[k] = batch.get(k).key();
+      forwarded.add(batch.get(0).sendAsync("deletePrimaries", (Object) keys));
+    }
+  }
+
+}
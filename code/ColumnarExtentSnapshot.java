@@ -0,0 +1,629 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.extents;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+
+import net.ess.ebase.core.entities.IEntity;
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.typeSystem.core.PersistencePlan;
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.facets.Facet;
+
+/****************************************************************************
+ * <code>ColumnarExtentSnapshot</code> is a point-in-time, column-oriented copy of the persistable
+ * attributes of a type's extent, supporting analytical scans, filters, and aggregates over the
+ * instances without touching the entity objects.
+ * <p>
+ * Each persistable facet becomes one off-heap column (held in direct buffers, outside the Java
+ * heap): integral, boolean, and character values as <code>long</code>s, floating point values as
+ * <code>double</code>s, and all others dictionary-encoded as <code>int</code> codes into an
+ * on-heap dictionary of distinct values. Every column also has an on-heap null bitmap.
+ * <p>
+ * Filters yield {@link Selection}s (row bitmaps) that combine with and/or/not, and aggregates
+ * range over a selection. Scans proceed a block of rows at a time, copying each block from the
+ * column into a reusable primitive array, so that the inner loops are simple array loops the VM
+ * can vectorize.
+ * <p>
+ * Snapshots aren't updated as the extent changes; their off-heap memory is released when the
+ * snapshot is collected.
+ * <p>
+ * Usage:
+ * <pre>
+ *   ColumnarExtentSnapshot s = Order_.type().columnarSnapshot();
+ *   Selection big = s.filterLong("quantity", q -> q >= 100).and(s.filterEquals("region", "EU"));
+ *   double revenue = s.sumDouble("price", big);
+ * </pre>
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class ColumnarExtentSnapshot
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* Rows per scan block. */
+  static final int BLOCK = 1024;
+
+  /** The type whose extent was captured. */
+  public final Type<?> type;
+
+  /** The number of rows (instances captured). */
+  public final int rowCount;
+
+  /* The columns, in persistable facet order. */
+  private final Column[] columns;
+
+  /* The instances' keys, by row. */
+  private final Object[] keys;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private ColumnarExtentSnapshot(Type<?> type, List<IEntity> rows) {
+    this.type = type;
+    this.rowCount = rows.size();
+    this.keys = new Object[rowCount];
+    for(int r = 0; r < rowCount; r++)
+      keys[r] = rows.get(r).meta().key();
+
+    PersistencePlan plan = type.persistencePlan();
+    this.columns = new Column[plan.facets.length];
+    Object[] values = new Object[rowCount];
+    for(int c = 0; c < columns.length; c++) {
+      Facet facet = plan.facets[c];
+      for(int r = 0; r < rowCount; r++)
+        values[r] = facet.apply(rows.get(r));
+      columns[c] = Column.encode(facet, values, rowCount);
+    }
+  }
+
+  /**
+   * Returns a snapshot of the instances currently in <code>type</code>'s extent.
+   */
+  public static ColumnarExtentSnapshot of(Type<?> type) {
+    TypeExtent<?> extent = type.extent();
+    if(extent == null)
+      throw new AbortException("%s has no extent", type);
+    List<IEntity> rows = new ArrayList<>();
+    for(Object e : extent)
+      rows.add((IEntity) e);
+    return new ColumnarExtentSnapshot(type, rows);
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Column Access
+  // ---------------------------
+  /**
+   * Returns the column of the facet named <code>facetName</code>.
+   */
+  public Column column(String facetName) {
+    return column(type.facet(facetName));
+  }
+
+  /**
+   * Returns the column of <code>facet</code>.
+   */
+  public Column column(Facet facet) {
+    for(Column c : columns) {
+      if(c.facet == facet)
+        return c;
+    }
+    throw new AbortException("%s: no column for facet %s", type, facet);
+  }
+
+  /**
+   * Returns the key of the instance captured in <code>row</code>.
+   */
+  public Object keyAt(int row) {
+    return keys[row];
+  }
+
+  /**
+   * Returns the number of bytes held off-heap.
+   */
+  public long offHeapBytes() {
+    long n = 0;
+    for(Column c : columns)
+      n += c.offHeapBytes();
+    return n;
+  }
+
+  // ---------------------------
+  // Filters
+  // ---------------------------
+  /**
+   * Returns a selection of all rows.
+   */
+  public Selection all() {
+    Selection s = new Selection(rowCount);
+    for(int r = 0; r < rowCount; r++)
+      s.set(r);
+    return s;
+  }
+
+  /**
+   * Selects the rows whose non-null integral value in <code>facetName</code> satisfies
+   * <code>predicate</code>.
+   */
+  public Selection filterLong(String facetName, LongPredicate predicate) {
+    LongColumn col = longColumn(facetName);
+    Selection s = new Selection(rowCount);
+    long[] block = new long[BLOCK];
+    LongBuffer data = col.data.duplicate();
+    for(int base = 0; base < rowCount; base += BLOCK) {
+      int n = Math.min(BLOCK, rowCount - base);
+      data.position(base);
+      data.get(block, 0, n);
+      for(int i = 0; i < n; i++) {
+        if(predicate.test(block[i]))
+          s.set(base + i);
+      }
+    }
+    return s.andNot(col.nulls);
+  }
+
+  /**
+   * Selects the rows whose non-null integral value in <code>facetName</code> is in
+   * <code>[lo, hi]</code>.
+   */
+  public Selection filterRange(String facetName, long lo, long hi) {
+    LongColumn col = longColumn(facetName);
+    Selection s = new Selection(rowCount);
+    long[] block = new long[BLOCK];
+    LongBuffer data = col.data.duplicate();
+    for(int base = 0; base < rowCount; base += BLOCK) {
+      int n = Math.min(BLOCK, rowCount - base);
+      data.position(base);
+      data.get(block, 0, n);
+      for(int i = 0; i < n; i++) {
+        long v = block[i];
+        if(v >= lo & v <= hi)
+          s.set(base + i);
+      }
+    }
+    return s.andNot(col.nulls);
+  }
+
+  /**
+   * Selects the rows whose non-null floating point value in <code>facetName</code> satisfies
+   * <code>predicate</code>.
+   */
+  public Selection filterDouble(String facetName, DoublePredicate predicate) {
+    DoubleColumn col = doubleColumn(facetName);
+    Selection s = new Selection(rowCount);
+    double[] block = new double[BLOCK];
+    DoubleBuffer data = col.data.duplicate();
+    for(int base = 0; base < rowCount; base += BLOCK) {
+      int n = Math.min(BLOCK, rowCount - base);
+      data.position(base);
+      data.get(block, 0, n);
+      for(int i = 0; i < n; i++) {
+        if(predicate.test(block[i]))
+          s.set(base + i);
+      }
+    }
+    return s.andNot(col.nulls);
+  }
+
+  /**
+   * Selects the rows whose value in <code>facetName</code> equals <code>value</code> (or is null,
+   * if <code>value</code> is null). Dictionary columns compare codes rather than values.
+   */
+  public Selection filterEquals(String facetName, Object value) {
+    Column col = column(facetName);
+    if(value == null)
+      return col.nulls.copy();
+    if(col instanceof LongColumn)
+      return filterRange(facetName, Column.toLong(value), Column.toLong(value));
+    if(col instanceof DoubleColumn) {
+      double d = ((Number) value).doubleValue();
+      return filterDouble(facetName, v -> v == d);
+    }
+    DictionaryColumn dc = (DictionaryColumn) col;
+    Selection s = new Selection(rowCount);
+    Integer code = dc.codes.get(value);
+    if(code == null)
+      return s;
+    int target = code;
+    int[] block = new int[BLOCK];
+    IntBuffer data = dc.data.duplicate();
+    for(int base = 0; base < rowCount; base += BLOCK) {
+      int n = Math.min(BLOCK, rowCount - base);
+      data.position(base);
+      data.get(block, 0, n);
+      for(int i = 0; i < n; i++) {
+        if(block[i] == target)
+          s.set(base + i);
+      }
+    }
+    return s;
+  }
+
+  /**
+   * Selects the rows whose value in <code>facetName</code> is non-null.
+   */
+  public Selection filterNotNull(String facetName) {
+    return all().andNot(column(facetName).nulls);
+  }
+
+  // ---------------------------
+  // Aggregates
+  // ---------------------------
+  /**
+   * Returns the sum of the non-null integral values of <code>facetName</code> in
+   * <code>selection</code>.
+   */
+  public long sumLong(String facetName, Selection selection) {
+    LongColumn col = longColumn(facetName);
+    Selection rows = selection.copy().andNot(col.nulls);
+    long sum = 0;
+    long[] block = new long[BLOCK];
+    LongBuffer data = col.data.duplicate();
+    for(int base = 0; base < rowCount; base += BLOCK) {
+      int n = Math.min(BLOCK, rowCount - base);
+      if(rows.isEmpty(base, n))
+        continue;
+      data.position(base);
+      data.get(block, 0, n);
+      for(int i = 0; i < n; i++)
+        sum += rows.get(base + i) ? block[i] : 0;
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the sum of the non-null numeric values of <code>facetName</code> in
+   * <code>selection</code>.
+   */
+  public double sumDouble(String facetName, Selection selection) {
+    Column c = column(facetName);
+    if(c instanceof LongColumn)
+      return sumLong(facetName, selection);
+    DoubleColumn col = doubleColumn(facetName);
+    Selection rows = selection.copy().andNot(col.nulls);
+    double sum = 0;
+    double[] block = new double[BLOCK];
+    DoubleBuffer data = col.data.duplicate();
+    for(int base = 0; base < rowCount; base += BLOCK) {
+      int n = Math.min(BLOCK, rowCount - base);
+      if(rows.isEmpty(base, n))
+        continue;
+      data.position(base);
+      data.get(block, 0, n);
+      for(int i = 0; i < n; i++)
+        sum += rows.get(base + i) ? block[i] : 0;
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the mean of the non-null numeric values of <code>facetName</code> in
+   * <code>selection</code>, or NaN if there are none.
+   */
+  public double average(String facetName, Selection selection) {
+    int n = selection.copy().andNot(column(facetName).nulls).cardinality();
+    return n == 0 ? Double.NaN : sumDouble(facetName, selection) / n;
+  }
+
+  /**
+   * Returns the least non-null integral value of <code>facetName</code> in
+   * <code>selection</code>, or <code>Long.MAX_VALUE</code> if there are none.
+   */
+  public long minLong(String facetName, Selection selection) {
+    LongColumn col = longColumn(facetName);
+    long[] min = {Long.MAX_VALUE};
+    selection.copy().andNot(col.nulls).forEach(r -> min[0] = Math.min(min[0], col.data.get(r)));
+    return min[0];
+  }
+
+  /**
+   * Returns the greatest non-null integral value of <code>facetName</code> in
+   * <code>selection</code>, or <code>Long.MIN_VALUE</code> if there are none.
+   */
+  public long maxLong(String facetName, Selection selection) {
+    LongColumn col = longColumn(facetName);
+    long[] max = {Long.MIN_VALUE};
+    selection.copy().andNot(col.nulls).forEach(r -> max[0] = Math.max(max[0], col.data.get(r)));
+    return max[0];
+  }
+
+  /**
+   * Returns the number of rows in <code>selection</code> having each distinct non-null value of
+   * the dictionary-encoded <code>facetName</code>, in order of first occurrence.
+   */
+  public Map<Object, Long> countBy(String facetName, Selection selection) {
+    Column c = column(facetName);
+    if(!(c instanceof DictionaryColumn))
+      throw new AbortException("%s: %s isn't dictionary-encoded", type, facetName);
+    DictionaryColumn col = (DictionaryColumn) c;
+    long[] counts = new long[col.dictionary.size()];
+    selection.copy().andNot(col.nulls).forEach(r -> counts[col.data.get(r)]++);
+    Map<Object, Long> result = new LinkedHashMap<>();
+    for(int code = 0; code < counts.length; code++) {
+      if(counts[code] != 0)
+        result.put(col.dictionary.get(code), counts[code]);
+    }
+    return result;
+  }
+
+  private LongColumn longColumn(String facetName) {
+    Column c = column(facetName);
+    if(!(c instanceof LongColumn))
+      throw new AbortException("%s: %s isn't integral", type, facetName);
+    return (LongColumn) c;
+  }
+
+  private DoubleColumn doubleColumn(String facetName) {
+    Column c = column(facetName);
+    if(!(c instanceof DoubleColumn))
+      throw new AbortException("%s: %s isn't floating point", type, facetName);
+    return (DoubleColumn) c;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ColumnarExtentSnapshot[%s, %d rows, %d columns]", type, rowCount,
+        columns.length);
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Selection</code> is a bitmap of selected rows.
+   ****************************************************************************/
+  public static class Selection
+  {
+    final long[] words;
+
+    final int size;
+
+    Selection(int size) {
+      this.size = size;
+      this.words = new long[(size + 63) >>> 6];
+    }
+
+    void set(int row) {
+      words[row >>> 6] |= 1L << row;
+    }
+
+    /** Returns whether <code>row</code> is selected. */
+    public boolean get(int row) {
+      return (words[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /* Returns whether none of the <code>n</code> rows starting at block-aligned base is set. */
+    boolean isEmpty(int base, int n) {
+      for(int w = base >>> 6, end = (base + n + 63) >>> 6; w < end; w++) {
+        if(words[w] != 0)
+          return false;
+      }
+      return true;
+    }
+
+    /** Returns the number of rows selected. */
+    public int cardinality() {
+      int n = 0;
+      for(long w : words)
+        n += Long.bitCount(w);
+      return n;
+    }
+
+    /** Intersects this with <code>s</code>, returning this. */
+    public Selection and(Selection s) {
+      for(int i = 0; i < words.length; i++)
+        words[i] &= s.words[i];
+      return this;
+    }
+
+    /** Unions this with <code>s</code>, returning this. */
+    public Selection or(Selection s) {
+      for(int i = 0; i < words.length; i++)
+        words[i] |= s.words[i];
+      return this;
+    }
+
+    /** Removes the rows of <code>s</code> from this, returning this. */
+    public Selection andNot(Selection s) {
+      for(int i = 0; i < words.length; i++)
+        words[i] &= ~s.words[i];
+      return this;
+    }
+
+    /** Complements this, returning this. */
+    public Selection not() {
+      for(int i = 0; i < words.length; i++)
+        words[i] = ~words[i];
+      if((size & 63) != 0)
+        words[words.length - 1] &= (1L << size) - 1;
+      return this;
+    }
+
+    /** Returns a copy of this. */
+    public Selection copy() {
+      Selection s = new Selection(size);
+      System.arraycopy(words, 0, s.words, 0, words.length);
+      return s;
+    }
+
+    /** Applies <code>action</code> to each selected row, in ascending order. */
+    public void forEach(IntConsumer action) {
+      for(int i = 0; i < words.length; i++) {
+        long w = words[i];
+        while(w != 0) {
+          action.accept((i << 6) + Long.numberOfTrailingZeros(w));
+          w &= w - 1;
+        }
+      }
+    }
+  }
+
+  /****************************************************************************
+   * <code>Column</code> holds the captured values of one facet, off-heap.
+   ****************************************************************************/
+  public static abstract class Column
+  {
+    /** The facet captured. */
+    public final Facet facet;
+
+    /* The rows whose value is null. */
+    final Selection nulls;
+
+    Column(Facet facet, int rowCount) {
+      this.facet = facet;
+      this.nulls = new Selection(rowCount);
+    }
+
+    /* Returns the number of bytes held off-heap. */
+    abstract long offHeapBytes();
+
+    /*
+     * Returns a column encoding <code>values[0..n)</code>, choosing its representation from the
+     * facet's declared value class, so that every snapshot of the facet has the same kind of
+     * column regardless of which values happen to be present.
+     */
+    static Column encode(Facet facet, Object[] values, int n) {
+      Class<?> c = facet.out().iClass;
+      if(isIntegral(c))
+        return new LongColumn(facet, values, n);
+      if(c == double.class || c == Double.class || c == float.class || c == Float.class)
+        return new DoubleColumn(facet, values, n);
+      return new DictionaryColumn(facet, values, n);
+    }
+
+    static boolean isIntegral(Class<?> c) {
+      return c == long.class || c == Long.class || c == int.class || c == Integer.class
+          || c == short.class || c == Short.class || c == byte.class || c == Byte.class
+          || c == boolean.class || c == Boolean.class || c == char.class || c == Character.class;
+    }
+
+    static long toLong(Object v) {
+      if(v instanceof Boolean)
+        return ((Boolean) v) ? 1 : 0;
+      if(v instanceof Character)
+        return (Character) v;
+      return ((Number) v).longValue();
+    }
+
+    static ByteBuffer allocate(int bytes) {
+      return ByteBuffer.allocateDirect(Math.max(bytes, 8)).order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /****************************************************************************
+   * <code>LongColumn</code> holds integral, boolean, and character values as longs.
+   ****************************************************************************/
+  static class LongColumn
+    extends Column
+  {
+    final LongBuffer data;
+
+    LongColumn(Facet facet, Object[] values, int n) {
+      super(facet, n);
+      data = allocate(n * Long.BYTES).asLongBuffer();
+      for(int r = 0; r < n; r++) {
+        if(values[r] == null)
+          nulls.set(r);
+        else
+          data.put(r, toLong(values[r]));
+      }
+    }
+
+    @Override
+    long offHeapBytes() {
+      return (long) data.capacity() * Long.BYTES;
+    }
+  }
+
+  /****************************************************************************
+   * <code>DoubleColumn</code> holds floating point values as doubles.
+   ****************************************************************************/
+  static class DoubleColumn
+    extends Column
+  {
+    final DoubleBuffer data;
+
+    DoubleColumn(Facet facet, Object[] values, int n) {
+      super(facet, n);
+      data = allocate(n * Double.BYTES).asDoubleBuffer();
+      for(int r = 0; r < n; r++) {
+        if(values[r] == null)
+          nulls.set(r);
+        else
+          data.put(r, ((Number) values[r]).doubleValue());
+      }
+    }
+
+    @Override
+    long offHeapBytes() {
+      return (long) data.capacity() * Double.BYTES;
+    }
+  }
+
+  /****************************************************************************
+   * <code>DictionaryColumn</code> holds other values as int codes into a dictionary of the
+   * distinct values, in order of first occurrence.
+   ****************************************************************************/
+  static class DictionaryColumn
+    extends Column
+  {
+    final IntBuffer data;
+
+    final List<Object> dictionary = new ArrayList<>();
+
+    final Map<Object, Integer> codes = new HashMap<>();
+
+    DictionaryColumn(Facet facet, Object[] values, int n) {
+      super(facet, n);
+      data = allocate(n * Integer.BYTES).asIntBuffer();
+      for(int r = 0; r < n; r++) {
+        Object v = values[r];
+        if(v == null) {
+          nulls.set(r);
+          continue;
+        }
+        Integer code = codes.get(v);
+        if(code == null) {
+          code = dictionary.size();
+          dictionary.add(v);
+          codes.put(v, code);
+        }
+        data.put(r, code);
+      }
+    }
+
+    /** Returns the number of distinct non-null values. */
+    public int cardinality() {
+      return dictionary.size();
+    }
+
+    @Override
+    long offHeapBytes() {
+      return (long) data.capacity() * Integer.BYTES;
+    }
+  }
+
+}
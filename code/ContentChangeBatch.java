@@ -0,0 +1,130 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.ess.ebase.transactions.Transaction;
+
+/****************************************************************************
+ * <code>ContentChangeBatch</code> coalesces the content-change notices raised within a
+ * transaction, so that each ancestor space on the containment chain is marked at most once, and
+ * each stored space's image is rewritten once, when the batch is flushed just before the
+ * transaction commits, rather than once per change.
+ * <p>
+ * A batch is attached to its transaction on the first notice raised in it, and flushed by the
+ * transaction's before-commit hook, hence the rewrites commit with it. If the transaction aborts,
+ * its after-abort hook detaches the batch. Batches don't refer back to their transactions, so a
+ * transaction ending without either hook running still lets its batch be collected with it.
+ * Notices raised outside any transaction aren't batched.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class ContentChangeBatch
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /*----- static state -----*/
+  /* The batch attached to each open transaction, if any; keyed weakly. */
+  private static final Map<Transaction, ContentChangeBatch> batches =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  /*----- instance state -----*/
+  /* Metas through which change notices have already propagated. */
+  private final Set<MetaEntity> marked = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  /* Stored metas whose images need rewriting, in first-marked order. */
+  private final ArrayList<MetaEntity> dirty = new ArrayList<>();
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private ContentChangeBatch() {}
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Scoping
+  // ---------------------------
+  /**
+   * Returns the batch attached to <code>transaction</code>, attaching one if none is, or null if
+   * <code>transaction</code> is null.
+   */
+  public static ContentChangeBatch of(Transaction transaction) {
+    if(transaction == null)
+      return null;
+    ContentChangeBatch batch = batches.get(transaction);
+    if(batch != null)
+      return batch;
+    synchronized(batches) {
+      batch = batches.get(transaction);
+      if(batch == null) {
+        ContentChangeBatch created = new ContentChangeBatch();
+        batches.put(transaction, created);
+        transaction.beforeCommit(() -> created.flush(transaction));
+        transaction.afterAbort(() -> batches.remove(transaction));
+        batch = created;
+      }
+    }
+    return batch;
+  }
+
+  // ---------------------------
+  // Marking
+  // ---------------------------
+  /**
+   * Marks <code>meta</code> as having propagated a change notice, returning false if it was
+   * already marked, in which case its ancestors are already marked too.
+   */
+  public synchronized boolean mark(MetaEntity meta) {
+    return marked.add(meta);
+  }
+
+  /**
+   * Records that the stored <code>meta</code>'s image needs rewriting.
+   */
+  public synchronized void dirty(MetaEntity meta) {
+    dirty.add(meta);
+  }
+
+  /**
+   * Returns the number of stored images awaiting rewrite.
+   */
+  public synchronized int dirtyCount() {
+    return dirty.size();
+  }
+
+  // ---------------------------
+  // Flushing
+  // ---------------------------
+  /*
+   * Detaches the batch from transaction, and schedules one rewrite per dirty image, in it.
+   * Notices raised by the rewrites themselves start a fresh batch.
+   */
+  private void flush(Transaction transaction) {
+    batches.remove(transaction);
+    MetaEntity[] toRewrite;
+    synchronized(this) {
+      toRewrite = dirty.toArray(new MetaEntity[dirty.size()]);
+      dirty.clear();
+      marked.clear();
+    }
+    for(MetaEntity meta : toRewrite)
+      meta.scheduleContentsRewrite();
+  }
+
+}
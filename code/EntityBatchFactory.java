@@ -0,0 +1,145 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.core.spaces.IBulkInsertingSpace;
+import net.ess.ebase.core.spaces.Space;
+import net.ess.ebase.typeSystem.structure.EntityType;
+
+/****************************************************************************
+ * <code>EntityBatchFactory</code> materializes many entities (or storage proxies) of one type in
+ * one space at once, e.g. when loading a query's result set.
+ * <p>
+ * Each entity is instantiated along the normal path, i.e. its meta's type is bound by
+ * <code>MetaEntity.entityType(...)</code> and its entity bound by
+ * <code>MetaEntity.createEntity(...)</code>, except that entities are created through the type's
+ * constructor handle, resolved once per batch rather than reflectively per entity. The rest is
+ * batched too: the metas are filled into a preallocated array, then inserted at once into the
+ * space (when it's an <code>IBulkInsertingSpace</code>), the entity registry, and the type's
+ * extent.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class EntityBatchFactory<F extends IEntity>
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The type of entities materialized. */
+  public final EntityType<F> entityType;
+
+  /** The space containing them, or null. */
+  public final Space space;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public EntityBatchFactory(EntityType<F> entityType, Space space) {
+    if(entityType.isAbstract())
+      throw new AbortException("attempting to instantiate an abstract type: %s", entityType);
+    this.entityType = entityType;
+    this.space = space;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Materializes and returns entities having <code>keys</code>, in key order.
+   */
+  public List<F> newEntities(Object[] keys) {
+    return materialize(keys, false);
+  }
+
+  /**
+   * Materializes and returns entities having <code>keys</code>, in key order.
+   */
+  public List<F> newEntities(Stream<?> keys) {
+    return materialize(keys.toArray(), false);
+  }
+
+  /**
+   * Materializes and returns storage proxies having <code>keys</code>, in key order.
+   */
+  public List<F> newProxies(Object[] keys) {
+    return materialize(keys, true);
+  }
+
+  /**
+   * Materializes and returns storage proxies having <code>keys</code>, in key order.
+   */
+  public List<F> newProxies(Stream<?> keys) {
+    return materialize(keys.toArray(), true);
+  }
+
+  /*
+   * Materializes one entity per key, then inserts the batch.
+   */
+  private List<F> materialize(Object[] keys, boolean asProxies) {
+    int n = keys.length;
+    MetaEntity[] metas = fill(keys, n, asProxies);
+    Object[] entities = new Object[n];
+    for(int i = 0; i < n; i++)
+      entities[i] = metas[i].value;
+
+    // then insert them all at once
+    if(space instanceof IBulkInsertingSpace) {
+      ((IBulkInsertingSpace) space).addBindings(metas, n);
+    } else if(space != null) {
+      for(MetaEntity meta : metas)
+        space.addBinding(meta);
+    }
+    MetaEntity.registerAll(metas, n);
+
+    return (List<F>) Arrays.asList(entities);
+  }
+
+  /*
+   * Returns metas for the first n keys, each bound to a new entity (or storage proxy), without
+   * touching the space or registry.
+   */
+  MetaEntity[] fill(Object[] keys, int n, boolean asProxies) {
+    MethodHandle constructor = entityType.instanceConstructor();
+    entityType.typeStats().instantiations.add(n);
+    MetaEntity[] metas = new MetaEntity[n];
+    for(int i = 0; i < n; i++) {
+      MetaEntity meta = new MetaEntity();
+      meta.entityType(entityType);
+      meta.space = space;
+      meta.key(keys[i]);
+      if(asProxies)
+        meta.markStorageProxy();
+      meta.createEntity(newEntity(constructor));
+      meta.synchKey();
+      metas[i] = meta;
+    }
+    return metas;
+  }
+
+  /*
+   * Returns a new entity made by constructor.
+   */
+  private static IEntity newEntity(MethodHandle constructor) {
+    try {
+      return (IEntity) (Object) constructor.invokeExact();
+    } catch(RuntimeException | Error e) {
+      throw e;
+    } catch(Throwable e) {
+      throw new AbortException("can't instantiate entity: %s", e);
+    }
+  }
+
+}
@@ -0,0 +1,667 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import net.ess.ebase.core.spaces.Space;
+import net.ess.ebase.typeSystem.structure.EntityType;
+
+/****************************************************************************
+ * <code>EntityCacheManager</code> bounds the registered (resident) entities of selected spaces
+ * and types, by purging entities chosen by a W-TinyLFU eviction policy when a budget is
+ * exceeded.
+ * <p>
+ * Each budget governs a <i>region</i>, holding the entities of one type, or of one space (a type
+ * budget takes precedence over a space budget). A region is split into
+ * <ul>
+ * <li>a small LRU <i>admission window</i> (1% of the budget), absorbing bursts of new
+ * entities;</li>
+ * <li>a segmented-LRU <i>main</i> area, of <i>probation</i> and <i>protected</i> (80% of main)
+ * segments, where an entity re-accessed on probation is promoted to protected.</li>
+ * </ul>
+ * An entity aging out of the window is admitted to main only if its estimated access frequency,
+ * kept by a count-min sketch that remembers entities no longer resident, beats that of main's
+ * eviction victim; otherwise it's purged itself.
+ * <p>
+ * Accesses are recorded in a lossy, striped buffer per region, rather than under the region's
+ * lock: a reader appends to its thread's stripe, dropping the record if the stripe's full, and
+ * the buffer is drained into the policy under the lock by one thread at a time, when a stripe
+ * fills or the region's next updated. Since the policy only needs a sample of the accesses to
+ * rank entities, dropped records cost little accuracy, and hot reads never contend on the lock.
+ * <p>
+ * Entities that are dirty, locked, or in use are never evicted; they're skipped, and may leave a
+ * region transiently over budget. Budgets are in units of the region's weigher, which by default
+ * counts entities; a weigher estimating bytes makes the budget a memory budget.
+ * <p>
+ * Usage:
+ * <pre>
+ *   EntityCacheManager cache = EntityCacheManager.install();
+ *   cache.budget(Order_.type(), 100_000);
+ *   cache.budget(archiveSpace, 64 << 20, m -> estimatedSize(m));
+ * </pre>
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class EntityCacheManager
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Weigher counting each entity as one unit. */
+  public static final ToLongFunction<MetaEntity> ENTITY_COUNT = m -> 1;
+
+  /** The installed manager, or null if registered entities are never evicted. */
+  static volatile EntityCacheManager current;
+
+  /* Maps a type or space to its region. */
+  private final Map<Object, Region> regions = new ConcurrentHashMap<>();
+
+  /* Metrics. */
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder pinnedSkips = new LongAdder();
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  /**
+   * Returns the installed manager, installing a new one if none is.
+   */
+  public static synchronized EntityCacheManager install() {
+    if(current == null)
+      current = new EntityCacheManager();
+    return current;
+  }
+
+  /**
+   * Uninstalls the installed manager, if any, leaving all entities resident.
+   */
+  public static synchronized void uninstall() {
+    current = null;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Budgets
+  // ---------------------------
+  /**
+   * Bounds the instances of <code>type</code> to <code>maxEntities</code>.
+   */
+  public EntityCacheManager budget(EntityType<?> type, long maxEntities) {
+    return budget(type, maxEntities, ENTITY_COUNT);
+  }
+
+  /**
+   * Bounds the total weight of the instances of <code>type</code> to <code>maxWeight</code>.
+   */
+  public EntityCacheManager budget(EntityType<?> type, long maxWeight,
+      ToLongFunction<MetaEntity> weigher) {
+    regions.put(type, new Region(maxWeight, weigher));
+    return this;
+  }
+
+  /**
+   * Bounds the entities primarily contained in <code>space</code> to <code>maxEntities</code>.
+   */
+  public EntityCacheManager budget(Space space, long maxEntities) {
+    return budget(space, maxEntities, ENTITY_COUNT);
+  }
+
+  /**
+   * Bounds the total weight of the entities primarily contained in <code>space</code> to
+   * <code>maxWeight</code>.
+   */
+  public EntityCacheManager budget(Space space, long maxWeight, ToLongFunction<MetaEntity> weigher) {
+    regions.put(space, new Region(maxWeight, weigher));
+    return this;
+  }
+
+  /**
+   * Removes the budget of <code>typeOrSpace</code>, leaving its entities resident.
+   */
+  public void removeBudget(Object typeOrSpace) {
+    regions.remove(typeOrSpace);
+  }
+
+  /**
+   * Returns the current total weight of the entities governed by <code>typeOrSpace</code>'s
+   * budget, or 0 if it has none.
+   */
+  public long weight(Object typeOrSpace) {
+    Region region = regions.get(typeOrSpace);
+    if(region == null)
+      return 0;
+    synchronized(region) {
+      return region.windowWeight + region.mainWeight;
+    }
+  }
+
+  /*
+   * Returns the region governing <code>meta</code>, or null if none.
+   */
+  private Region regionFor(MetaEntity meta) {
+    if(regions.isEmpty())
+      return null;
+    Region region = meta.entityType != null ? regions.get(meta.entityType) : null;
+    if(region == null && meta.space != null)
+      region = regions.get(meta.space);
+    return region;
+  }
+
+  // ---------------------------
+  // Registry Notifications
+  // ---------------------------
+  /**
+   * Notes that <code>meta</code> has become resident.
+   */
+  void admitted(MetaEntity meta) {
+    Region region = regionFor(meta);
+    if(region == null)
+      return;
+    List<MetaEntity> victims;
+    synchronized(region) {
+      drainReads(region);
+      if(region.nodes.containsKey(meta))
+        return;
+      misses.increment();
+      region.admit(meta);
+      victims = region.evict(pinnedSkips);
+    }
+    purge(victims);
+  }
+
+  /**
+   * Notes that <code>meta</code>'s state has been accessed. The access is buffered, and applied
+   * to the policy when the buffer's next drained; it may be dropped if the buffer's full.
+   */
+  void accessed(MetaEntity meta) {
+    Region region = regionFor(meta);
+    if(region == null)
+      return;
+    if(region.reads.offer(meta) && region.draining.compareAndSet(false, true)) {
+      List<MetaEntity> victims;
+      try {
+        synchronized(region) {
+          drainReads(region);
+          victims = region.evict(pinnedSkips);
+        }
+      } finally {
+        region.draining.set(false);
+      }
+      purge(victims);
+    }
+  }
+
+  /*
+   * Applies the accesses buffered in region to its policy. Called holding region's lock.
+   */
+  private void drainReads(Region region) {
+    region.reads.drain(meta -> {
+      Node node = region.nodes.get(meta);
+      if(node != null) {
+        hits.increment();
+        region.access(node);
+      } else if(meta.isRegistered()) {
+        // resident before the budget was set, or before the manager was installed
+        misses.increment();
+        region.admit(meta);
+      }
+    });
+  }
+
+  /**
+   * Notes that <code>meta</code> is no longer resident.
+   */
+  void removed(MetaEntity meta) {
+    Region region = regionFor(meta);
+    if(region == null)
+      return;
+    synchronized(region) {
+      drainReads(region);
+      Node node = region.nodes.remove(meta);
+      if(node != null)
+        region.unlink(node);
+    }
+  }
+
+  /*
+   * Purges <code>victims</code>, outside any region's lock, skipping those that became pinned
+   * since being chosen.
+   */
+  private void purge(List<MetaEntity> victims) {
+    for(MetaEntity meta : victims) {
+      if(meta.isEvictable()) {
+        meta.purge();
+        evictions.increment();
+      } else {
+        pinnedSkips.increment();
+      }
+    }
+  }
+
+  // ---------------------------
+  // Metrics
+  // ---------------------------
+  /**
+   * Returns the number of recorded accesses to resident entities; accesses dropped by a full
+   * read buffer aren't counted.
+   */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of entities that became resident.
+   */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the number of entities purged.
+   */
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * Returns the number of times a dirty, locked, or in-use entity was passed over for eviction.
+   */
+  public long pinnedSkipCount() {
+    return pinnedSkips.sum();
+  }
+
+  /**
+   * Returns the fraction of accesses that were hits.
+   */
+  public double hitRate() {
+    long h = hits.sum(), total = h + misses.sum();
+    return total == 0 ? 1.0 : (double) h / total;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("EntityCacheManager[hits=%d, misses=%d, evictions=%d, pinnedSkips=%d]",
+        hitCount(), missCount(), evictionCount(), pinnedSkipCount());
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Region</code> holds the resident entities governed by one budget, in its window,
+   * probation, and protected queues. All access is synchronized on the region, except recording
+   * reads in its buffer.
+   ****************************************************************************/
+  static class Region
+  {
+    static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    final long maxWeight, windowMax, mainMax, protectedMax;
+
+    final ToLongFunction<MetaEntity> weigher;
+
+    final Map<MetaEntity, Node> nodes = new IdentityHashMap<>();
+
+    final Queue window = new Queue(), probation = new Queue(), protectd = new Queue();
+
+    long windowWeight, mainWeight;
+
+    final FrequencySketch sketch;
+
+    /* Accesses not yet applied, and whether a thread is applying them. */
+    final ReadBuffer reads = new ReadBuffer();
+
+    final AtomicBoolean draining = new AtomicBoolean();
+
+    Region(long maxWeight, ToLongFunction<MetaEntity> weigher) {
+      this.maxWeight = Math.max(1, maxWeight);
+      this.windowMax = Math.max(1, this.maxWeight / 100);
+      this.mainMax = Math.max(1, this.maxWeight - windowMax);
+      this.protectedMax = mainMax * 4 / 5;
+      this.weigher = weigher;
+
+      // size the sketch by entry count: known up front only when the weigher counts entities,
+      // else grown as entities are admitted
+      this.sketch = new FrequencySketch(weigher == ENTITY_COUNT ? this.maxWeight : 0);
+    }
+
+    /* Adds <code>meta</code> to the window. */
+    void admit(MetaEntity meta) {
+      Node node = new Node(meta, Math.max(1, weigher.applyAsLong(meta)));
+      nodes.put(meta, node);
+      sketch.ensureCapacity(nodes.size());
+      sketch.increment(node.hash);
+      node.queue = WINDOW;
+      window.append(node);
+      windowWeight += node.weight;
+    }
+
+    /* Records an access to <code>node</code>, promoting it if it's on probation. */
+    void access(Node node) {
+      sketch.increment(node.hash);
+      switch(node.queue) {
+        case WINDOW:
+          window.moveToTail(node);
+          break;
+        case PROBATION:
+          probation.unlink(node);
+          node.queue = PROTECTED;
+          protectd.append(node);
+          demoteExcessProtected();
+          break;
+        default:
+          protectd.moveToTail(node);
+      }
+    }
+
+    /* Moves the least recently used protected entities to probation, while protected is over. */
+    private void demoteExcessProtected() {
+      while(protectd.weight > protectedMax && protectd.head != null) {
+        Node n = protectd.head;
+        protectd.unlink(n);
+        n.queue = PROBATION;
+        probation.append(n);
+      }
+    }
+
+    /* Removes <code>node</code> from whichever queue holds it. */
+    void unlink(Node node) {
+      queueOf(node).unlink(node);
+      if(node.queue == WINDOW)
+        windowWeight -= node.weight;
+      else
+        mainWeight -= node.weight;
+    }
+
+    private Queue queueOf(Node node) {
+      return node.queue == WINDOW ? window : node.queue == PROBATION ? probation : protectd;
+    }
+
+    /*
+     * Moves entities aging out of the window into main, choosing between each and main's
+     * victim by frequency, and returns the entities chosen for eviction, which have already
+     * been removed from the region.
+     */
+    List<MetaEntity> evict(LongAdder pinnedSkips) {
+      List<MetaEntity> victims = new ArrayList<>(2);
+      while(windowWeight > windowMax && window.head != null) {
+        Node candidate = window.head;
+        window.unlink(candidate);
+        windowWeight -= candidate.weight;
+
+        if(mainWeight + candidate.weight > mainMax) {
+          Node victim = evictableVictim(pinnedSkips);
+          if(victim != null && candidate.meta.isEvictable()
+              && sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+            // the candidate loses
+            nodes.remove(candidate.meta);
+            victims.add(candidate.meta);
+            continue;
+          }
+          while(victim != null && mainWeight + candidate.weight > mainMax) {
+            unlink(victim);
+            nodes.remove(victim.meta);
+            victims.add(victim.meta);
+            victim = evictableVictim(pinnedSkips);
+          }
+        }
+
+        // admit the candidate to main, even if pinned entities leave main over budget
+        candidate.queue = PROBATION;
+        probation.append(candidate);
+        mainWeight += candidate.weight;
+      }
+      return victims;
+    }
+
+    /*
+     * Returns the least recently used evictable entity in main, preferring probation, or null
+     * if all are pinned.
+     */
+    private Node evictableVictim(LongAdder pinnedSkips) {
+      for(Queue q : new Queue[] {probation, protectd}) {
+        for(Node n = q.head; n != null; n = n.next) {
+          if(n.meta.isEvictable())
+            return n;
+          pinnedSkips.increment();
+        }
+      }
+      return null;
+    }
+  }
+
+  /****************************************************************************
+   * <code>Node</code> is a resident entity's position in its region's queues.
+   ****************************************************************************/
+  static class Node
+  {
+    final MetaEntity meta;
+
+    final long weight;
+
+    /* Hash of the entity's identity, stable across re-materializations. */
+    final int hash;
+
+    int queue;
+
+    Node prev, next;
+
+    Node(MetaEntity meta, long weight) {
+      this.meta = meta;
+      this.weight = weight;
+      this.hash = Objects.hashCode(meta.key()) * 31 + Objects.hashCode(meta.entityType);
+    }
+  }
+
+  /****************************************************************************
+   * <code>Queue</code> is an intrusive, doubly-linked LRU list of nodes, least recently used
+   * first.
+   ****************************************************************************/
+  static class Queue
+  {
+    Node head, tail;
+
+    long weight;
+
+    void append(Node n) {
+      n.prev = tail;
+      n.next = null;
+      if(tail == null)
+        head = n;
+      else
+        tail.next = n;
+      tail = n;
+      weight += n.weight;
+    }
+
+    void unlink(Node n) {
+      if(n.prev == null)
+        head = n.next;
+      else
+        n.prev.next = n.next;
+      if(n.next == null)
+        tail = n.prev;
+      else
+        n.next.prev = n.prev;
+      n.prev = n.next = null;
+      weight -= n.weight;
+    }
+
+    void moveToTail(Node n) {
+      if(n != tail) {
+        unlink(n);
+        append(n);
+      }
+    }
+  }
+
+  /****************************************************************************
+   * <code>ReadBuffer</code> is a lossy, striped multi-producer buffer of accessed metas, drained
+   * by one thread at a time. Each stripe is a small ring with its own write counter, chosen by
+   * the recording thread, so concurrent readers rarely contend; a record finding its stripe full
+   * is dropped.
+   ****************************************************************************/
+  static class ReadBuffer
+  {
+    static final int STRIPES =
+        Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+
+    static final int SIZE = 16, MASK = SIZE - 1;
+
+    /* Counter spacing, so that stripes' counters don't share cache lines. */
+    private static final int PAD = 16;
+
+    private final AtomicReferenceArray<MetaEntity> slots =
+        new AtomicReferenceArray<>(STRIPES * SIZE);
+
+    private final AtomicLongArray writes = new AtomicLongArray(STRIPES * PAD);
+
+    private final AtomicLongArray reads = new AtomicLongArray(STRIPES * PAD);
+
+    /*
+     * Records meta in the current thread's stripe, returning whether the stripe is full enough
+     * that it should be drained.
+     */
+    boolean offer(MetaEntity meta) {
+      int stripe = (int) (Thread.currentThread().getId() * 0x9e3779b9L >>> 16) & (STRIPES - 1);
+      int c = stripe * PAD;
+      long w = writes.get(c), r = reads.get(c);
+      if(w - r >= SIZE)
+        return true;
+      if(!writes.compareAndSet(c, w, w + 1))
+        return false;
+      slots.lazySet(stripe * SIZE + ((int) w & MASK), meta);
+      return w + 1 - r >= SIZE / 2;
+    }
+
+    /*
+     * Passes each recorded meta to consumer, emptying the buffer. Called by one thread at a time.
+     */
+    void drain(Consumer<MetaEntity> consumer) {
+      for(int stripe = 0; stripe < STRIPES; stripe++) {
+        int c = stripe * PAD;
+        long r = reads.get(c), w = writes.get(c);
+        for(; r < w; r++) {
+          int index = stripe * SIZE + ((int) r & MASK);
+          MetaEntity meta = slots.get(index);
+          if(meta == null)
+            break; // claimed, but not yet written
+          slots.lazySet(index, null);
+          consumer.accept(meta);
+        }
+        reads.lazySet(c, r);
+      }
+    }
+  }
+
+  /****************************************************************************
+   * <code>FrequencySketch</code> is a count-min sketch of 4-bit counters, estimating each
+   * entity's recent access frequency. Counters are halved every <code>10 * width</code>
+   * increments, so the estimates favor recent history. The sketch is sized by the number of
+   * entries tracked, and widened (discarding its history) as that number grows.
+   ****************************************************************************/
+  static class FrequencySketch
+  {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /* The widest sketch. */
+    private static final int MAX_WIDTH = 1 << 22;
+
+    private long[] table;
+
+    private int mask;
+
+    private int sampleSize;
+
+    private int additions;
+
+    FrequencySketch(long capacity) {
+      table = new long[0];
+      ensureCapacity(capacity);
+    }
+
+    /* Widens the sketch, if need be, to track <code>capacity</code> entries. */
+    void ensureCapacity(long capacity) {
+      int width = (int) Math.min(MAX_WIDTH, Long.highestOneBit(Math.max(16, capacity - 1) << 1));
+      if(width <= table.length)
+        return;
+      table = new long[width];
+      mask = width - 1;
+      sampleSize = 10 * width;
+      additions = 0;
+    }
+
+    /* Returns the estimated frequency of <code>hash</code>, in [0, 15]. */
+    int frequency(int hash) {
+      int h = spread(hash), f = 15;
+      for(int i = 0; i < 4; i++)
+        f = Math.min(f, (int) ((table[indexOf(h, i)] >>> offsetOf(h, i)) & 0xfL));
+      return f;
+    }
+
+    /* Increments the estimated frequency of <code>hash</code>, aging all counters periodically. */
+    void increment(int hash) {
+      int h = spread(hash);
+      boolean added = false;
+      for(int i = 0; i < 4; i++) {
+        int index = indexOf(h, i), offset = offsetOf(h, i);
+        if(((table[index] >>> offset) & 0xfL) != 0xfL) {
+          table[index] += 1L << offset;
+          added = true;
+        }
+      }
+      if(added && ++additions == sampleSize)
+        reset();
+    }
+
+    /* Halves all counters. */
+    private void reset() {
+      for(int i = 0; i < table.length; i++)
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      additions /= 2;
+    }
+
+    private int indexOf(int h, int i) {
+      long hash = (h + SEEDS[i]) * SEEDS[i];
+      hash += hash >>> 32;
+      return (int) hash & mask;
+    }
+
+    private static int offsetOf(int h, int i) {
+      return ((h >>> (i << 3)) & 0xf) << 2;
+    }
+
+    private static int spread(int x) {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+    }
+  }
+
+}
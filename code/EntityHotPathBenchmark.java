@@ -0,0 +1,124 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ess.ebase.core.entities.IEntity;
+import net.ess.ebase.core.entities.MetaEntity;
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.transport.comm.entity.EntityTunnelEncoder;
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.extents.TypeExtent;
+import net.ess.ebase.typeSystem.structure.EntityType;
+
+/****************************************************************************
+ * <code>EntityHotPathBenchmark</code> measures the entity hot paths: extent registration, key
+ * access, facet updates, and state encoding, on instances of a configurable entity class.
+ * <p>
+ * Like {@link SyntheticTypeGraph}, it needs a booted type system, and fails in setup otherwise.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityHotPathBenchmark
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The entity class instantiated. */
+  @Param({"net.ess.ebase.system.platform.Host"})
+  public String entityClass;
+
+  /** The (string-valued) facet updated. */
+  @Param({"name"})
+  public String facetName;
+
+  /** Number of instances registered in the extent before measuring. */
+  @Param({"1000", "100000"})
+  public int extentSize;
+
+  private EntityType<IEntity> type;
+
+  private TypeExtent<IEntity> extent;
+
+  private IEntity entity;
+
+  private MetaEntity meta;
+
+  private ByteArrayOutputStream bytes;
+
+  private EntityTunnelEncoder encoder;
+
+  private long updates;
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Setup
+  public void setUp() throws ClassNotFoundException {
+    if(!Type.isTypeSystemOnline())
+      throw new AbortException("the type system must be booted before running entity benchmarks");
+    type = (EntityType<IEntity>) Type.forClass(Class.forName(entityClass));
+    extent = type.extent();
+    // spaceless entities, registered directly in the extent
+    for(int i = 0; i < extentSize; i++)
+      type.registerInstance(new MetaEntity<Object, IEntity>(type, "bench-" + i).value);
+    entity = type.instance();
+    meta = entity.meta();
+    bytes = new ByteArrayOutputStream();
+    encoder = new EntityTunnelEncoder(bytes);
+  }
+
+  @Benchmark
+  public TypeExtent<IEntity> extentRegistration() {
+    type.registerInstance(entity);
+    type.unregisterInstance(entity);
+    return extent;
+  }
+
+  @Benchmark
+  public Object key() {
+    return meta.key();
+  }
+
+  @Benchmark
+  public void updateFacet() {
+    long n = updates++;
+    meta.updateFacet(facetName, "v" + n, "v" + (n + 1));
+  }
+
+  @Benchmark
+  public int encodeEntityState() {
+    // rewinding the stream is a field store, cheaper than any per-invocation fixture
+    bytes.reset();
+    meta.encodeEntityState(encoder);
+    return bytes.size();
+  }
+
+}
@@ -0,0 +1,42 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.transport.comm.entity;
+
+import java.util.List;
+
+/****************************************************************************
+ * <code>EntityTunnel</code> is the wire beneath an <code>EntityTunnelMultiplexer</code>: it
+ * carries batches of calls to a residence, and delivers their replies back to the multiplexer
+ * it was opened on, tagged with each call's request id.
+ * <p>
+ * Replies may arrive in any order, and on any thread.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public interface EntityTunnel
+{
+  /**
+   * Binds the multiplexer to which replies are to be delivered. Called once, before the first
+   * batch is transmitted.
+   */
+  void open(EntityTunnelMultiplexer multiplexer);
+
+  /**
+   * Writes <code>batch</code> to the residence, preserving its order, and flushing once at the
+   * end. The batch list is reused by the caller, hence must not be retained.
+   */
+  void transmit(List<EntityTunnelCall> batch);
+
+  /**
+   * Closes the tunnel. Calls still in flight are failed by the multiplexer.
+   */
+  void close();
+
+}
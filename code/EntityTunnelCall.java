@@ -0,0 +1,85 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.transport.comm.entity;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.ess.ebase.core.entities.MetaEntity;
+
+/****************************************************************************
+ * <code>EntityTunnelCall</code> is a single in-flight behavior call forwarded over an
+ * <code>EntityTunnel</code>. Each call carries the request id under which its reply is
+ * matched, so that many calls can share one tunnel without waiting on each other.
+ * <p>
+ * The behavior is designated either by <code>buid</code> (when non-zero), or by
+ * <code>behaviorName</code>.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class EntityTunnelCall
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The id under which the reply is matched to this call. */
+  public final long requestId;
+
+  /** The meta of the entity receiving the call. */
+  public final MetaEntity target;
+
+  /** The buid of the called behavior, or 0 if designated by name. */
+  public final long buid;
+
+  /** The name of the called behavior, or null if designated by buid. */
+  public final String behaviorName;
+
+  /** The call's arguments. */
+  public final Object[] args;
+
+  /** The future completed when the reply arrives. */
+  public final CompletableFuture<Object> reply = new CompletableFuture<>();
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public EntityTunnelCall(long requestId, MetaEntity target, long buid, Object[] args) {
+    this(requestId, target, buid, null, args);
+  }
+
+  public EntityTunnelCall(long requestId, MetaEntity target, String behaviorName, Object[] args) {
+    this(requestId, target, 0, behaviorName, args);
+  }
+
+  private EntityTunnelCall(
+      long requestId, MetaEntity target, long buid, String behaviorName, Object[] args) {
+    this.requestId = requestId;
+    this.target = target;
+    this.buid = buid;
+    this.behaviorName = behaviorName;
+    this.args = args;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns whether the called behavior is designated by its buid.
+   */
+  public boolean isByBuid() {
+    return buid != 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "call#%d(%s)", requestId, isByBuid() ? Long.toHexString(buid) : behaviorName);
+  }
+
+}
@@ -0,0 +1,233 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.transport.comm.entity;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.ess.ebase.core.entities.EntityResidence;
+import net.ess.ebase.core.entities.MetaEntity;
+import net.ess.ebase.core.exceptions.AbortException;
+
+/****************************************************************************
+ * <code>EntityTunnelMultiplexer</code> multiplexes any number of in-flight behavior calls to one
+ * residence over a single <code>EntityTunnel</code>.
+ * <p>
+ * Each call is tagged with a request id and parked in the in-flight table until its reply
+ * arrives, so callers get a <code>CompletableFuture</code> immediately rather than waiting out
+ * the round trip. Consecutive calls are pipelined: whichever sender finds the tunnel idle
+ * drains everything queued behind it into one batch, so a burst of calls costs one write and
+ * one flush.
+ * <p>
+ * Multiplexers are bound per residence via {@link #bind}, and looked up by
+ * {@link MetaEntity#sendAsync}.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class EntityTunnelMultiplexer
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /*----- static state -----*/
+  /* Multiplexers bound to residences. */
+  private static final ConcurrentHashMap<EntityResidence, EntityTunnelMultiplexer> multiplexers =
+      new ConcurrentHashMap<>();
+
+  /*----- instance state -----*/
+  /** The residence to which calls are forwarded. */
+  public final EntityResidence residence;
+
+  /* The wire carrying the calls. */
+  private final EntityTunnel tunnel;
+
+  /* Source of request ids. */
+  private final AtomicLong nextRequestId = new AtomicLong();
+
+  /* Calls awaiting replies, by request id. */
+  private final ConcurrentHashMap<Long, EntityTunnelCall> inFlight = new ConcurrentHashMap<>();
+
+  /* Calls queued for the next batch. */
+  private final ConcurrentLinkedQueue<EntityTunnelCall> pending = new ConcurrentLinkedQueue<>();
+
+  /* Set while some sender is draining pending into the tunnel. */
+  private final AtomicBoolean draining = new AtomicBoolean();
+
+  /* The batch buffer, reused by whichever sender holds draining. */
+  private final ArrayList<EntityTunnelCall> batch = new ArrayList<>();
+
+  /* Set once closed; written, and checked when registering calls, under lifecycleLock. */
+  private volatile boolean closed;
+
+  /* Orders call registration against close(), so no call is registered after the sweep. */
+  private final Object lifecycleLock = new Object();
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public EntityTunnelMultiplexer(EntityResidence residence, EntityTunnel tunnel) {
+    this.residence = residence;
+    this.tunnel = tunnel;
+    tunnel.open(this);
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Binding
+  // ---------------------------
+  /**
+   * Binds a multiplexer over <code>tunnel</code> to <code>residence</code>, closing any
+   * multiplexer previously bound there. Returns the new multiplexer.
+   */
+  public static EntityTunnelMultiplexer bind(EntityResidence residence, EntityTunnel tunnel) {
+    EntityTunnelMultiplexer m = new EntityTunnelMultiplexer(residence, tunnel);
+    EntityTunnelMultiplexer old = multiplexers.put(residence, m);
+    if(old != null)
+      old.close();
+    return m;
+  }
+
+  /**
+   * Returns the multiplexer bound to <code>residence</code>, or null if none is bound.
+   */
+  public static EntityTunnelMultiplexer forResidence(EntityResidence residence) {
+    return residence != null ? multiplexers.get(residence) : null;
+  }
+
+  /**
+   * Unbinds and closes the multiplexer bound to <code>residence</code>, if any.
+   */
+  public static void unbind(EntityResidence residence) {
+    EntityTunnelMultiplexer m = multiplexers.remove(residence);
+    if(m != null)
+      m.close();
+  }
+
+  // ---------------------------
+  // Sending
+  // ---------------------------
+  /**
+   * Forwards a call to the behavior of <code>target</code> having <code>buid</code>, returning
+   * the future of its reply.
+   */
+  public CompletableFuture<Object> send(MetaEntity target, long buid, Object... args) {
+    return enqueue(new EntityTunnelCall(nextRequestId.incrementAndGet(), target, buid, args));
+  }
+
+  /**
+   * Forwards a call to the behavior of <code>target</code> having <code>behaviorName</code>,
+   * returning the future of its reply.
+   */
+  public CompletableFuture<Object> send(MetaEntity target, String behaviorName, Object... args) {
+    return enqueue(
+        new EntityTunnelCall(nextRequestId.incrementAndGet(), target, behaviorName, args));
+  }
+
+  /*
+   * Registers <code>call</code> as in flight, queues it, and drains the queue if no other sender
+   * is already doing so.
+   */
+  private CompletableFuture<Object> enqueue(EntityTunnelCall call) {
+    synchronized(lifecycleLock) {
+      if(closed)
+        throw new AbortException("tunnel to %s is closed", residence);
+      inFlight.put(call.requestId, call);
+      pending.add(call);
+    }
+    drain();
+    return call.reply;
+  }
+
+  /*
+   * Writes all pending calls to the tunnel as batches. Only one sender drains at a time; calls
+   * queued while it's writing are picked up either by it, or by the re-check after it releases.
+   */
+  private void drain() {
+    while(!pending.isEmpty() && draining.compareAndSet(false, true)) {
+      try {
+        EntityTunnelCall call;
+        while((call = pending.poll()) != null)
+          batch.add(call);
+        if(!batch.isEmpty())
+          tunnel.transmit(batch);
+      } catch(RuntimeException e) {
+        // the batch never made it out, so fail its calls
+        for(EntityTunnelCall c : batch)
+          failureReceived(c.requestId, e);
+      } finally {
+        batch.clear();
+        draining.set(false);
+      }
+    }
+  }
+
+  // ---------------------------
+  // Reply Handling
+  // ---------------------------
+  /**
+   * Completes the call having <code>requestId</code> with <code>result</code>. Replies for
+   * unknown (e.g. already failed) calls are ignored.
+   */
+  public void replyReceived(long requestId, Object result) {
+    EntityTunnelCall call = inFlight.remove(requestId);
+    if(call != null)
+      call.reply.complete(result);
+  }
+
+  /**
+   * Fails the call having <code>requestId</code> with <code>failure</code>.
+   */
+  public void failureReceived(long requestId, Throwable failure) {
+    EntityTunnelCall call = inFlight.remove(requestId);
+    if(call != null)
+      call.reply.completeExceptionally(failure);
+  }
+
+  /**
+   * Returns the number of calls awaiting replies.
+   */
+  public int inFlightCount() {
+    return inFlight.size();
+  }
+
+  // ---------------------------
+  // Lifecycle Management
+  // ---------------------------
+  /**
+   * Closes the tunnel, failing all calls still in flight. Calls enqueued concurrently either
+   * register before the close, and are failed here, or are rejected.
+   */
+  public void close() {
+    synchronized(lifecycleLock) {
+      if(closed)
+        return;
+      closed = true;
+    }
+    tunnel.close();
+    AbortException e = new AbortException("tunnel to %s closed", residence);
+    for(Long id : inFlight.keySet())
+      failureReceived(id, e);
+    pending.clear();
+  }
+
+  /**
+   * Returns whether the tunnel is closed.
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+}
@@ -0,0 +1,143 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.flags;
+
+/****************************************************************************
+ * <code>FlagQuery</code> is a compiled, reusable test of a flag mask: that it has all of some
+ * flags, at least one of others (if any), and none of yet others.
+ * <p>
+ * Queries are built once, typically into static finals, so that evaluating them neither
+ * allocates nor iterates: the all-of and none-of parts combine into a single AND-compare, and
+ * the any-of part (when present) into one more.
+ * <p>
+ * Usage:
+ * <pre>
+ *   static final FlagQuery INSTANTIABLE_ATOM = FlagQuery.allOf(ATOM, INSTANTIABLE).noneOf(FACET);
+ *   ...
+ *   if(meta.matches(INSTANTIABLE_ATOM)) ...
+ * </pre>
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class FlagQuery
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Flags that must all be present. */
+  public final long allOf;
+
+  /** Flags of which at least one must be present, or 0 if unconstrained. */
+  public final long anyOf;
+
+  /** Flags that must all be absent. */
+  public final long noneOf;
+
+  /* The bits tested by the all-of/none-of compare. */
+  private final long careMask;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private FlagQuery(long allOf, long anyOf, long noneOf) {
+    this.allOf = allOf;
+    this.anyOf = anyOf;
+    this.noneOf = noneOf;
+    this.careMask = allOf | noneOf;
+  }
+
+  /**
+   * Returns a query for masks having all of <code>flags</code>.
+   */
+  public static FlagQuery allOf(Flag... flags) {
+    return new FlagQuery(maskOf(flags), 0, 0);
+  }
+
+  /**
+   * Returns a query for masks having at least one of <code>flags</code>.
+   */
+  public static FlagQuery anyOf(Flag... flags) {
+    return new FlagQuery(0, maskOf(flags), 0);
+  }
+
+  /**
+   * Returns a query for masks having none of <code>flags</code>.
+   */
+  public static FlagQuery noneOf(Flag... flags) {
+    return new FlagQuery(0, 0, maskOf(flags));
+  }
+
+  /**
+   * Returns a query for masks having all of the bits <code>mask</code>.
+   */
+  public static FlagQuery allOf(long mask) {
+    return new FlagQuery(mask, 0, 0);
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns the combined mask of <code>flags</code>.
+   */
+  public static long maskOf(Flag... flags) {
+    long m = 0;
+    for(Flag f : flags)
+      m |= f.mask;
+    return m;
+  }
+
+  /**
+   * Returns this query, further requiring all of <code>flags</code>.
+   */
+  public FlagQuery andAllOf(Flag... flags) {
+    return new FlagQuery(allOf | maskOf(flags), anyOf, noneOf);
+  }
+
+  /**
+   * Returns this query, further requiring at least one of <code>flags</code>.
+   */
+  public FlagQuery andAnyOf(Flag... flags) {
+    return new FlagQuery(allOf, anyOf | maskOf(flags), noneOf);
+  }
+
+  /**
+   * Returns this query, further requiring none of <code>flags</code>.
+   */
+  public FlagQuery andNoneOf(Flag... flags) {
+    return new FlagQuery(allOf, anyOf, noneOf | maskOf(flags));
+  }
+
+  /**
+   * Returns whether <code>mask</code> satisfies this query.
+   */
+  public boolean test(long mask) {
+    return (mask & careMask) == allOf && (anyOf == 0 || (mask & anyOf) != 0);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(!(o instanceof FlagQuery))
+      return false;
+    FlagQuery q = (FlagQuery) o;
+    return q.allOf == allOf && q.anyOf == anyOf && q.noneOf == noneOf;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(allOf * 31 + anyOf * 17 + noneOf);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("FlagQuery[all=%x, any=%x, none=%x]", allOf, anyOf, noneOf);
+  }
+
+}
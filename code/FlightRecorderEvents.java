@@ -0,0 +1,209 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.system.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/****************************************************************************
+ * <code>FlightRecorderEvents</code> defines the platform's Java Flight Recorder events, for
+ * profiling type system boot and entity request latency with standard JFR tooling (e.g.
+ * <code>jcmd &lt;pid&gt; JFR.start</code>, JDK Mission Control).
+ * <p>
+ * Each event is a timed span, begun and ended around the instrumented operation, and committed
+ * only if it's enabled and exceeds its threshold; so when recording is off, instrumentation costs
+ * just the (usually scalar-replaced) event allocation and two clock reads. Thresholds can be
+ * overridden per event name in a JFR settings file. Stack traces are off by default.
+ * <p>
+ * Usage:
+ * <pre>
+ *   TypeWire event = new TypeWire();
+ *   event.begin();
+ *   ...
+ *   event.end();
+ *   if(event.shouldCommit()) {
+ *     event.typeName = name;
+ *     event.commit();
+ *   }
+ * </pre>
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class FlightRecorderEvents
+{
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private FlightRecorderEvents() {}
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  // ---------------------------
+  // Type System
+  // ---------------------------
+  /****************************************************************************
+   * <code>TypeSketch</code> spans a type's sketching action.
+   ****************************************************************************/
+  @Name("net.ess.ebase.TypeSketch")
+  @Label("Type Sketch")
+  @Category({"eBase", "Type System"})
+  @Description("Sketching of a type, including its supertypes")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  public static class TypeSketch
+    extends Event
+  {
+    @Label("Type")
+    public String typeName;
+  }
+
+  /****************************************************************************
+   * <code>TypeWire</code> spans a type's wiring action.
+   ****************************************************************************/
+  @Name("net.ess.ebase.TypeWire")
+  @Label("Type Wire")
+  @Category({"eBase", "Type System"})
+  @Description("Wiring of a type, including its supertypes")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  public static class TypeWire
+    extends Event
+  {
+    @Label("Type")
+    public String typeName;
+  }
+
+  // ---------------------------
+  // Entity Lifecycle
+  // ---------------------------
+  /****************************************************************************
+   * <code>EntityFetch</code> spans fetching an entity's state.
+   ****************************************************************************/
+  @Name("net.ess.ebase.EntityFetch")
+  @Label("Entity Fetch")
+  @Category({"eBase", "Entities"})
+  @Threshold("1 ms")
+  @StackTrace(false)
+  public static class EntityFetch
+    extends Event
+  {
+    @Label("Type")
+    public String typeName;
+
+    @Label("Key")
+    public String key;
+  }
+
+  /****************************************************************************
+   * <code>EntityStore</code> spans storing an update of an entity's persistable state.
+   ****************************************************************************/
+  @Name("net.ess.ebase.EntityStore")
+  @Label("Entity Store")
+  @Category({"eBase", "Entities"})
+  @Threshold("1 ms")
+  @StackTrace(false)
+  public static class EntityStore
+    extends Event
+  {
+    @Label("Type")
+    public String typeName;
+
+    @Label("Key")
+    public String key;
+
+    @Label("Facet")
+    public String facetName;
+  }
+
+  /****************************************************************************
+   * <code>EntityDelete</code> spans deleting an entity.
+   ****************************************************************************/
+  @Name("net.ess.ebase.EntityDelete")
+  @Label("Entity Delete")
+  @Category({"eBase", "Entities"})
+  @Threshold("1 ms")
+  @StackTrace(false)
+  public static class EntityDelete
+    extends Event
+  {
+    @Label("Type")
+    public String typeName;
+
+    @Label("Key")
+    public String key;
+  }
+
+  // ---------------------------
+  // Transactions and Events
+  // ---------------------------
+  /****************************************************************************
+   * <code>TransactionCommit</code> spans committing a transaction on behalf of an entity.
+   ****************************************************************************/
+  @Name("net.ess.ebase.TransactionCommit")
+  @Label("Transaction Commit")
+  @Category({"eBase", "Transactions"})
+  @Threshold("5 ms")
+  @StackTrace(false)
+  public static class TransactionCommit
+    extends Event
+  {
+    @Label("Type")
+    public String typeName;
+
+    @Label("Key")
+    public String key;
+  }
+
+  /****************************************************************************
+   * <code>EventFanOut</code> spans delivering a batch of events to a sink.
+   ****************************************************************************/
+  @Name("net.ess.ebase.EventFanOut")
+  @Label("Event Fan-Out")
+  @Category({"eBase", "Events"})
+  @Threshold("1 ms")
+  @StackTrace(false)
+  public static class EventFanOut
+    extends Event
+  {
+    @Label("Channel")
+    public String channel;
+
+    @Label("Batch Size")
+    public int batchSize;
+  }
+
+  /****************************************************************************
+   * <code>EventDeliveryFailure</code> records a sink failing to accept an event delivered to it
+   * asynchronously. Unlike the span events, it's instantaneous and always committed when enabled.
+   ****************************************************************************/
+  @Name("net.ess.ebase.EventDeliveryFailure")
+  @Label("Event Delivery Failure")
+  @Category({"eBase", "Events"})
+  @StackTrace(false)
+  public static class EventDeliveryFailure
+    extends Event
+  {
+    @Label("Channel")
+    public String channel;
+
+    @Label("Sink")
+    public String sink;
+
+    @Label("Exception")
+    public String exception;
+  }
+
+}
@@ -0,0 +1,133 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ess.ebase.core.entities.IEntity;
+import net.ess.ebase.core.entities.MetaEntity;
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.facets.Facet;
+import net.ess.ebase.typeSystem.structure.EntityType;
+
+/****************************************************************************
+ * <code>HotEntityReadBenchmark</code> measures reader throughput on a single hot entity under a
+ * small write ratio (1% by default), comparing the meta's optimistic read protocol against
+ * serializing all access on the meta's monitor, as <code>readState</code> and friends used to.
+ * <p>
+ * Each read ensures the entity's state is current, then reads one of its facets; each write
+ * updates that facet in place. Both variants do the same work per access, so they differ only in
+ * how it's guarded: the optimistic variant writes under the meta's write lock, and the monitor
+ * baseline under the monitor alone, without paying for the stamped lock.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class HotEntityReadBenchmark
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The entity class instantiated. */
+  @Param({"net.ess.ebase.system.platform.Host"})
+  public String entityClass;
+
+  /** The (string-valued) facet read and updated. */
+  @Param({"name"})
+  public String facetName;
+
+  /** Writes per 10,000 accesses. */
+  @Param({"100"})
+  public int writesPer10k;
+
+  /* The hot entity, its meta, and the facet accessed. */
+  private IEntity entity;
+
+  private MetaEntity meta;
+
+  private Facet facet;
+
+  private final AtomicLong updates = new AtomicLong();
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Setup
+  public void setUp() throws ClassNotFoundException {
+    if(!Type.isTypeSystemOnline())
+      throw new AbortException("the type system must be booted before running entity benchmarks");
+    EntityType<IEntity> type = (EntityType<IEntity>) Type.forClass(Class.forName(entityClass));
+    facet = type.facet(facetName);
+    if(facet == null)
+      throw new AbortException("facet doesn't exist: %s.%s", type.baseName(), facetName);
+    entity = type.instance();
+    meta = entity.meta();
+  }
+
+  @Benchmark
+  public Object optimistic() {
+    if(isWrite()) {
+      meta.write(m -> update());
+      return null;
+    }
+    meta.readState();
+    return meta.read(m -> facet.apply(entity));
+  }
+
+  @Benchmark
+  public Object monitor() {
+    synchronized(meta) {
+      if(isWrite()) {
+        update();
+        return null;
+      }
+      meta.readState();
+      return facet.apply(entity);
+    }
+  }
+
+  /*
+   * Returns whether this access should be a write.
+   */
+  private boolean isWrite() {
+    return ThreadLocalRandom.current().nextInt(10_000) < writesPer10k;
+  }
+
+  /*
+   * Updates the facet to a fresh value; the caller supplies the guard.
+   */
+  private void update() {
+    long n = updates.getAndIncrement();
+    facet.updateEntity(entity, "v" + n, "v" + (n + 1), false, null);
+  }
+
+}
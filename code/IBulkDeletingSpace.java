@@ -0,0 +1,35 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.spaces;
+
+import java.util.List;
+
+import net.ess.ebase.core.entities.MetaEntity;
+import net.ess.ebase.transactions.Transaction;
+
+/****************************************************************************
+ * <code>IBulkDeletingSpace</code> is implemented by spaces able to delete many of their
+ * elements in one set-based operation (e.g. one <tt>DELETE ... WHERE id IN (...)</tt> per batch
+ * for table-backed storage), rather than one element at a time.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public interface IBulkDeletingSpace
+{
+  /**
+   * Deletes the entities of <code>metas</code>, all of which are primarily contained in this
+   * space, as part of <code>transaction</code>, in place of <code>MetaEntity.deleteIn</code>: the
+   * space removes them from its storage in one set-based operation, and arranges for them to be
+   * unlinked from all their spaces and unregistered when the transaction commits. Their read
+   * leases have already been revoked.
+   */
+  void deleteAll(List<MetaEntity> metas, Transaction transaction);
+
+}
@@ -0,0 +1,28 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.spaces;
+
+import net.ess.ebase.core.entities.MetaEntity;
+
+/****************************************************************************
+ * <code>IBulkInsertingSpace</code> is implemented by spaces able to bind many new elements in
+ * one operation (e.g. sizing their index once, and taking their lock once), rather than one
+ * <code>addBinding</code> at a time.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public interface IBulkInsertingSpace
+{
+  /**
+   * Binds the keyed metas <code>metas[0..count)</code>, all of whose space is this space.
+   */
+  void addBindings(MetaEntity[] metas, int count);
+
+}
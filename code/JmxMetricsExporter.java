@@ -0,0 +1,169 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.system.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.ess.ebase.core.exceptions.AbortException;
+
+/****************************************************************************
+ * <code>JmxMetricsExporter</code> publishes the stats as a read-only MBean on the platform MBean
+ * server, with one <code>long</code> attribute per counter, and per histogram its count, mean,
+ * and 50th and 99th percentiles. Attributes are read live from the stats.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class JmxMetricsExporter
+  implements MetricsExporter
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The default object name. */
+  public static final String DEFAULT_NAME = "net.ess.ebase:type=TypeStats";
+
+  private final ObjectName objectName;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public JmxMetricsExporter() {
+    this(DEFAULT_NAME);
+  }
+
+  public JmxMetricsExporter(String objectName) {
+    try {
+      this.objectName = new ObjectName(objectName);
+    } catch(JMException e) {
+      throw new AbortException("bad MBean name %s: %s", objectName, e);
+    }
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Override
+  public void publish(TypeStats stats) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if(server.isRegistered(objectName))
+        server.unregisterMBean(objectName);
+      server.registerMBean(new StatsMBean(stats), objectName);
+    } catch(JMException e) {
+      throw new AbortException("unable to register %s: %s", objectName, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if(server.isRegistered(objectName))
+        server.unregisterMBean(objectName);
+    } catch(JMException e) {
+      throw new AbortException("unable to unregister %s: %s", objectName, e);
+    }
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>StatsMBean</code> exposes a TypeStats' metrics as read-only attributes.
+   ****************************************************************************/
+  static class StatsMBean
+    implements DynamicMBean
+  {
+    /* Maps attribute names to their live readers. */
+    private final Map<String, LongSupplier> readers = new LinkedHashMap<>();
+
+    StatsMBean(TypeStats stats) {
+      List<String> names = new ArrayList<>();
+      stats.forEachCounter((name, value) -> names.add(name));
+      for(String name : names)
+        readers.put(name, () -> counterValue(stats, name));
+      for(StripedHistogram h : stats.histograms()) {
+        readers.put(h.name + "_count", h::count);
+        readers.put(h.name + "_mean", () -> (long) h.mean());
+        readers.put(h.name + "_p50", () -> h.quantile(0.50));
+        readers.put(h.name + "_p99", () -> h.quantile(0.99));
+      }
+    }
+
+    private static long counterValue(TypeStats stats, String counter) {
+      long[] value = {0};
+      stats.forEachCounter((name, v) -> {
+        if(name.equals(counter))
+          value[0] = v;
+      });
+      return value[0];
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      LongSupplier reader = readers.get(attribute);
+      if(reader == null)
+        throw new AttributeNotFoundException(attribute);
+      return reader.getAsLong();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      AttributeList list = new AttributeList();
+      for(String a : attributes) {
+        LongSupplier reader = readers.get(a);
+        if(reader != null)
+          list.add(new Attribute(a, reader.getAsLong()));
+      }
+      return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+      throw new UnsupportedOperationException("read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[readers.size()];
+      int i = 0;
+      for(String name : readers.keySet())
+        attrs[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+      return new MBeanInfo(TypeStats.class.getName(), "Type system metrics", attrs, null, null,
+          null);
+    }
+  }
+
+}
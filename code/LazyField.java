@@ -0,0 +1,126 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Function;
+
+import net.ess.ebase.core.exceptions.AbortException;
+
+/****************************************************************************
+ * <code>LazyField</code> lazily initializes reference fields of type metadata, e.g. a type's
+ * supertype or behavior registry, exactly once, and reads them without locking thereafter.
+ * <p>
+ * A field is read with acquire semantics; if it's unset, its owner's monitor is taken, the field
+ * is re-read, and only if still unset is the initializer run, and its (non-null) result published
+ * with release semantics. So the initializer runs at most once per owner (unless it yields null,
+ * which {@link #get} doesn't cache), and once published, readers see a fully constructed value
+ * with a single acquiring load, never touching the monitor. Fields whose initializers may yield
+ * null for good, e.g. the supertype of a root type, are read with {@link #getOrNull}, which notes
+ * the null result as a bit of an int field of the owner, so it's resolved only once too.
+ * <p>
+ * Taking the owner's monitor on a miss keeps initialization consistent with the owner's own
+ * <code>synchronized</code> installers (such as <code>Type.addAncestor</code>), and since
+ * monitors are reentrant, initializers may freely call other lazy accessors of the same owner.
+ * <p>
+ * Usage:
+ * <pre>
+ *   private static final VarHandle BEHAVIORS = LazyField.handle(Type.class, "behaviors", BehaviorRegistry.class);
+ *   ...
+ *   public BehaviorRegistry behaviors() {
+ *     return LazyField.get(this, BEHAVIORS, Type::initBehaviors);
+ *   }
+ * </pre>
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class LazyField
+{
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private LazyField() {}
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns a handle on the field of <code>owner</code> named <code>name</code>, whose type is
+   * <code>fieldType</code>, for use in static initializers.
+   */
+  public static VarHandle handle(Class<?> owner, String name, Class<?> fieldType) {
+    try {
+      return MethodHandles.privateLookupIn(owner, MethodHandles.lookup())
+          .findVarHandle(owner, name, fieldType);
+    } catch(ReflectiveOperationException e) {
+      throw new AbortException("no lazy field %s.%s: %s", owner.getSimpleName(), name, e);
+    }
+  }
+
+  /**
+   * Returns the value of <code>field</code> in <code>owner</code>, initializing it with
+   * <code>initializer</code> if unset.
+   */
+  public static <O, V> V get(O owner, VarHandle field, Function<? super O, ? extends V> initializer) {
+    V v = (V) field.getAcquire(owner);
+    return v != null ? v : initialize(owner, field, initializer);
+  }
+
+  /**
+   * Returns the value of <code>field</code> in <code>owner</code>, as {@link #get}, but if
+   * <code>initializer</code> yields null, sets <code>bit</code> of int field <code>nulls</code>,
+   * and returns null thereafter without taking the monitor. Clearing the bit re-arms the field.
+   */
+  public static <O, V> V getOrNull(O owner, VarHandle field, VarHandle nulls, int bit,
+      Function<? super O, ? extends V> initializer) {
+    V v = (V) field.getAcquire(owner);
+    if(v != null || ((int) nulls.getAcquire(owner) & bit) != 0)
+      return v;
+    synchronized(owner) {
+      v = (V) field.getAcquire(owner);
+      if(v == null && ((int) nulls.getAcquire(owner) & bit) == 0) {
+        v = initializer.apply(owner);
+        if(v != null)
+          field.setRelease(owner, v);
+        else
+          nulls.getAndBitwiseOrRelease(owner, bit);
+      }
+      return v;
+    }
+  }
+
+  /**
+   * Publishes <code>value</code> into <code>field</code> of <code>owner</code>, with release
+   * semantics.
+   */
+  public static <O, V> void set(O owner, VarHandle field, V value) {
+    field.setRelease(owner, value);
+  }
+
+  /*
+   * Slow path: initializes the field under the owner's monitor.
+   */
+  private static <O, V> V initialize(O owner, VarHandle field,
+      Function<? super O, ? extends V> initializer) {
+    synchronized(owner) {
+      V v = (V) field.getAcquire(owner);
+      if(v == null) {
+        v = initializer.apply(owner);
+
+        // the initializer may have installed the value itself, e.g. via a synchronized installer
+        if(v != null)
+          field.setRelease(owner, v);
+      }
+      return v;
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.benchmarks;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ess.ebase.typeSystem.core.LazyField;
+
+/****************************************************************************
+ * <code>LazyFieldBenchmark</code> measures reads of lazily initialized type metadata from many
+ * threads, comparing {@link LazyField}'s acquire/release protocol against initializing under the
+ * owner's monitor on every access, and against the unsynchronized check-then-set that
+ * <code>Type</code>'s accessors used to do.
+ * <p>
+ * The <code>cold</code> benchmarks reset the holders per invocation, so measure first access,
+ * where all threads race to initialize; the others measure steady-state reads.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class LazyFieldBenchmark
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* The holders read. */
+  private Holder lazy, monitor, racy;
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Setup(Level.Iteration)
+  public void setUp() {
+    lazy = new Holder();
+    monitor = new Holder();
+    racy = new Holder();
+  }
+
+  @Benchmark
+  public Object lazyField() {
+    return lazy.viaLazyField();
+  }
+
+  @Benchmark
+  public Object synchronizedAccess() {
+    return monitor.viaMonitor();
+  }
+
+  @Benchmark
+  public Object unsynchronized() {
+    return racy.viaPlainCheck();
+  }
+
+  @Benchmark
+  public Object lazyFieldCold() {
+    return new Holder().viaLazyField();
+  }
+
+  @Benchmark
+  public Object synchronizedAccessCold() {
+    return new Holder().viaMonitor();
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Holder</code> stands in for a type, holding one lazily computed field.
+   ****************************************************************************/
+  static class Holder
+  {
+    private static final VarHandle VALUE = LazyField.handle(Holder.class, "value", Object.class);
+
+    Object value;
+
+    Object viaLazyField() {
+      return LazyField.get(this, VALUE, Holder::compute);
+    }
+
+    synchronized Object viaMonitor() {
+      if(value == null)
+        value = compute();
+      return value;
+    }
+
+    Object viaPlainCheck() {
+      if(value == null)
+        value = compute();
+      return value;
+    }
+
+    /* Stands in for e.g. resolving a supertype. */
+    Object compute() {
+      return new StringBuilder("meta").append(System.identityHashCode(this)).toString();
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import net.ess.ebase.events.Event;
+
+/****************************************************************************
+ * <code>LeaseRevokedEvent</code> is emitted on a primary's event channel when the primary is
+ * updated while read leases on it are outstanding, telling replicas holding leases of
+ * <code>epoch</code> (or earlier) to stop serving reads locally.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class LeaseRevokedEvent
+  extends Event
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The key of the entity whose leases are revoked. */
+  public final Object key;
+
+  /** The latest revoked epoch. */
+  public final long epoch;
+
+  /** The <code>System.nanoTime()</code> by which every holding of <code>epoch</code> lapses. */
+  public final long expiresAt;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public LeaseRevokedEvent(Object key, long epoch, long expiresAt) {
+    this.key = key;
+    this.epoch = epoch;
+    this.expiresAt = expiresAt;
+  }
+
+}
@@ -0,0 +1,176 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.transport.comm.entity;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+
+import net.ess.ebase.core.entities.MetaEntity;
+import net.ess.ebase.typeSystem.structure.EntityType;
+
+/****************************************************************************
+ * <code>LoopbackEntityTunnel</code> is an in-JVM tunnel, whose "residence" is the local entity
+ * itself: each transmitted call is dispatched on <code>executor</code> by invoking the
+ * designated behavior directly on the target, and its reply is delivered back through the
+ * multiplexer exactly as a remote reply would be.
+ * <p>
+ * As in forwarding, a named call is dispatched to the target's meta when the meta declares a
+ * matching behavior (e.g. <code>grantLease</code>, <code>connectLeaseHolder</code>,
+ * <code>deletePrimaries</code>), and otherwise to the entity, via its type's behaviors.
+ * <p>
+ * An optional simulated round-trip latency makes it usable for benchmarking pipelining and
+ * fan-out without a network.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class LoopbackEntityTunnel
+  implements EntityTunnel
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* The executor on which calls are dispatched. */
+  private final Executor executor;
+
+  /* Simulated round-trip latency, in nanos. */
+  private final long latencyNanos;
+
+  /* The multiplexer receiving replies. */
+  private EntityTunnelMultiplexer multiplexer;
+
+  /* The meta's public behaviors, by name. */
+  private static final Map<String, List<Method>> metaBehaviors = new HashMap<>();
+
+  static {
+    for(Method m : MetaEntity.class.getDeclaredMethods()) {
+      int mods = m.getModifiers();
+      if(Modifier.isPublic(mods) && !Modifier.isStatic(mods))
+        metaBehaviors.computeIfAbsent(m.getName(), n -> new ArrayList<>()).add(m);
+    }
+  }
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public LoopbackEntityTunnel() {
+    this(ForkJoinPool.commonPool(), 0);
+  }
+
+  public LoopbackEntityTunnel(Executor executor, long latencyNanos) {
+    this.executor = executor;
+    this.latencyNanos = latencyNanos;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Override
+  public void open(EntityTunnelMultiplexer multiplexer) {
+    this.multiplexer = multiplexer;
+  }
+
+  @Override
+  public void transmit(List<EntityTunnelCall> batch) {
+    for(EntityTunnelCall call : batch)
+      executor.execute(() -> dispatch(call));
+  }
+
+  @Override
+  public void close() {}
+
+  /*
+   * Invokes <code>call</code> on its target, and posts the reply (or failure) to the multiplexer.
+   */
+  private void dispatch(EntityTunnelCall call) {
+    if(latencyNanos > 0)
+      LockSupport.parkNanos(latencyNanos);
+    try {
+      MetaEntity target = call.target;
+      Method m = call.isByBuid() ? null : metaBehavior(call.behaviorName, call.args);
+      Object result;
+      if(m != null) {
+        result = m.invoke(target, call.args);
+      } else {
+        EntityType type = target.entityType();
+        m = call.isByBuid() ? type.methodFor(call.buid) : type.methodFor(call.behaviorName, call.args);
+        result = m.invoke(target.entity(), call.args);
+      }
+      multiplexer.replyReceived(call.requestId, result);
+    } catch(InvocationTargetException e) {
+      multiplexer.failureReceived(call.requestId, e.getCause());
+    } catch(Exception e) {
+      multiplexer.failureReceived(call.requestId, e);
+    }
+  }
+
+  /*
+   * Returns the meta's behavior named name that accepts args, or null if there's none.
+   */
+  private static Method metaBehavior(String name, Object[] args) {
+    List<Method> candidates = metaBehaviors.get(name);
+    if(candidates == null)
+      return null;
+    for(Method m : candidates) {
+      if(accepts(m.getParameterTypes(), args))
+        return m;
+    }
+    return null;
+  }
+
+  /*
+   * Returns whether args can be passed as parameters of the given types, unboxing as invoke() does.
+   */
+  private static boolean accepts(Class<?>[] types, Object[] args) {
+    int n = args != null ? args.length : 0;
+    if(types.length != n)
+      return false;
+    for(int i = 0; i < n; i++) {
+      Class<?> t = types[i];
+      Object a = args[i];
+      if(a == null) {
+        if(t.isPrimitive())
+          return false;
+      } else if(t.isPrimitive()) {
+        if(!boxOf(t).isInstance(a))
+          return false;
+      } else if(!t.isInstance(a)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Class<?> boxOf(Class<?> primitive) {
+    if(primitive == long.class)
+      return Long.class;
+    if(primitive == int.class)
+      return Integer.class;
+    if(primitive == boolean.class)
+      return Boolean.class;
+    if(primitive == double.class)
+      return Double.class;
+    if(primitive == float.class)
+      return Float.class;
+    if(primitive == short.class)
+      return Short.class;
+    if(primitive == byte.class)
+      return Byte.class;
+    return Character.class;
+  }
+
+}
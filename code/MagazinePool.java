@@ -0,0 +1,219 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/****************************************************************************
+ * <code>MagazinePool</code> is a size-bounded <code>ResourcePool</code> organized like a slab
+ * allocator's magazine layer: each thread acquires from and releases to a pair of private
+ * <i>magazines</i> (small stacks of pooled objects), and only when both are exhausted (or both
+ * full) does it trade a whole magazine with a shared, lock-free <i>depot</i>.
+ * <p>
+ * The fast path therefore touches only thread-private state: it neither locks nor allocates.
+ * Objects released when the thread's magazines and the depot are all full are dropped, which
+ * bounds the pool at roughly <code>(2 * threads + depotSize) * magazineSize</code> objects.
+ * <p>
+ * Released objects are reset in place by the pool's resetter, rather than being re-created when
+ * next acquired.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class MagazinePool<T>
+  extends ResourcePool
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Default number of objects per magazine. */
+  public static final int DEFAULT_MAGAZINE_SIZE = 32;
+
+  /** Default number of magazines the depot holds. */
+  public static final int DEFAULT_DEPOT_SIZE = 16;
+
+  /* Creates objects when the pool has none to hand out. */
+  private final Supplier<T> factory;
+
+  /* Resets released objects for reuse. */
+  private final Consumer<T> resetter;
+
+  private final int magazineSize;
+
+  /* Shared full magazines. */
+  private final Depot fullMagazines;
+
+  /* Shared empty magazines. */
+  private final Depot emptyMagazines;
+
+  /* Each thread's pair of magazines. */
+  private final ThreadLocal<ThreadCache> caches;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public MagazinePool(Supplier<T> factory, Consumer<T> resetter) {
+    this(factory, resetter, DEFAULT_MAGAZINE_SIZE, DEFAULT_DEPOT_SIZE);
+  }
+
+  public MagazinePool(Supplier<T> factory, Consumer<T> resetter, int magazineSize, int depotSize) {
+    this.factory = factory;
+    this.resetter = resetter;
+    this.magazineSize = magazineSize;
+    this.fullMagazines = new Depot(depotSize);
+    this.emptyMagazines = new Depot(depotSize);
+    this.caches = ThreadLocal.withInitial(() -> new ThreadCache(magazineSize));
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Acquisition and Release
+  // ---------------------------
+  /**
+   * Returns a pooled object, creating one if the pool is empty.
+   */
+  public T acquire() {
+    ThreadCache c = caches.get();
+    if(c.loaded.size > 0)
+      return (T) c.loaded.pop();
+
+    // loaded is empty; if previous has objects, swap them
+    if(c.previous.size > 0) {
+      c.swap();
+      return (T) c.loaded.pop();
+    }
+
+    // both are empty; trade previous for a full magazine from the depot
+    Magazine full = fullMagazines.take();
+    if(full != null) {
+      emptyMagazines.put(c.previous);
+      c.previous = c.loaded;
+      c.loaded = full;
+      return (T) c.loaded.pop();
+    }
+    return factory.get();
+  }
+
+  /**
+   * Resets <code>value</code> and returns it to the pool, dropping it if the pool is full.
+   */
+  public void release(T value) {
+    resetter.accept(value);
+    ThreadCache c = caches.get();
+    if(c.loaded.size < magazineSize) {
+      c.loaded.push(value);
+      return;
+    }
+
+    // loaded is full; if previous has room, swap them
+    if(c.previous.size < magazineSize) {
+      c.swap();
+      c.loaded.push(value);
+      return;
+    }
+
+    // both are full; trade previous for an empty magazine, unless the depot is full too
+    if(fullMagazines.put(c.previous)) {
+      Magazine empty = emptyMagazines.take();
+      c.previous = c.loaded;
+      c.loaded = empty != null ? empty : new Magazine(magazineSize);
+      c.loaded.push(value);
+    }
+  }
+
+  @Override
+  public void returnToPool(Object value) {
+    release((T) value);
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Magazine</code> is a fixed-capacity stack of pooled objects.
+   ****************************************************************************/
+  static class Magazine
+  {
+    final Object[] rounds;
+
+    int size;
+
+    Magazine(int capacity) {
+      rounds = new Object[capacity];
+    }
+
+    Object pop() {
+      Object o = rounds[--size];
+      rounds[size] = null;
+      return o;
+    }
+
+    void push(Object o) {
+      rounds[size++] = o;
+    }
+  }
+
+  /****************************************************************************
+   * <code>ThreadCache</code> is a thread's pair of magazines.
+   ****************************************************************************/
+  static class ThreadCache
+  {
+    Magazine loaded;
+
+    Magazine previous;
+
+    ThreadCache(int magazineSize) {
+      loaded = new Magazine(magazineSize);
+      previous = new Magazine(magazineSize);
+    }
+
+    void swap() {
+      Magazine m = loaded;
+      loaded = previous;
+      previous = m;
+    }
+  }
+
+  /****************************************************************************
+   * <code>Depot</code> is a lock-free, bounded bag of magazines, whose slots are claimed and
+   * filled by compare-and-set.
+   ****************************************************************************/
+  static class Depot
+  {
+    private final AtomicReferenceArray<Magazine> slots;
+
+    Depot(int capacity) {
+      slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /* Returns some magazine, or null if the depot is empty. */
+    Magazine take() {
+      for(int i = 0; i < slots.length(); i++) {
+        Magazine m = slots.get(i);
+        if(m != null && slots.compareAndSet(i, m, null))
+          return m;
+      }
+      return null;
+    }
+
+    /* Adds <code>m</code>, returning false if the depot is full. */
+    boolean put(Magazine m) {
+      for(int i = 0; i < slots.length(); i++) {
+        if(slots.get(i) == null && slots.compareAndSet(i, null, m))
+          return true;
+      }
+      return false;
+    }
+  }
+
+}
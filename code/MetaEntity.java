@@ -16,10 +16,24 @@ import static net.ess.ebase.core.entities.PersistenceMachineModel.fetching;
 import static net.ess.ebase.core.entities.PersistenceMachineModel.storing;
 import static net.ess.ebase.lifecycles.LifecycleMachineModel.wired;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+import net.ess.ebase.core.MagazinePool;
 import net.ess.ebase.core.ResourcePool;
 import net.ess.ebase.core.exceptions.AbortException;
 import net.ess.ebase.core.exceptions.Assertion;
@@ -28,12 +42,17 @@ import net.ess.ebase.core.spaces.Space;
 import net.ess.ebase.data.ContainmentAspect;
 import net.ess.ebase.events.Event;
 import net.ess.ebase.events.EventChannel;
+import net.ess.ebase.events.RingBufferEventChannel;
 import net.ess.ebase.functions.DomainValueMissingException;
 import net.ess.ebase.lifecycles.EntityLifecycleEvent;
 import net.ess.ebase.lifecycles.LifecycleState;
 import net.ess.ebase.math.automata.StateTransition;
 import net.ess.ebase.system.platform.Host;
 import net.ess.ebase.system.platform.Site;
+import net.ess.ebase.system.stats.FlightRecorderEvents.EntityDelete;
+import net.ess.ebase.system.stats.FlightRecorderEvents.EntityFetch;
+import net.ess.ebase.system.stats.FlightRecorderEvents.EntityStore;
+import net.ess.ebase.system.stats.FlightRecorderEvents.TransactionCommit;
 import net.ess.ebase.transactions.EntityDeletedEvent;
 import net.ess.ebase.transactions.EntityFetchedEvent;
 import net.ess.ebase.transactions.EntityMutator;
@@ -42,13 +61,16 @@ import net.ess.ebase.transactions.NoteContentUpdatedEvent;
 import net.ess.ebase.transactions.Transaction;
 import net.ess.ebase.transport.comm.entity.EntityTunnelDecoder;
 import net.ess.ebase.transport.comm.entity.EntityTunnelEncoder;
+import net.ess.ebase.transport.comm.entity.EntityTunnelMultiplexer;
 import net.ess.ebase.transport.comm.entity.EntityTunnelSender;
 import net.ess.ebase.typeSystem.core.Type;
 import net.ess.ebase.typeSystem.core.Version;
 import net.ess.ebase.typeSystem.facets.Attribute;
 import net.ess.ebase.typeSystem.facets.Facet;
 import net.ess.ebase.typeSystem.flags.Flag;
+import net.ess.ebase.typeSystem.flags.FlagQuery;
 import net.ess.ebase.typeSystem.flags.Flagset;
+import net.ess.ebase.typeSystem.extents.TypeExtent;
 import net.ess.ebase.typeSystem.structure.EntityType;
 
 /****************************************************************************
@@ -77,10 +99,49 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
   /* Access path to flags. */
   protected transient Flagset flags;
   protected transient long flagMask;
+
+  /* The read lease granted (on a primary) or held (on a replica), if any. */
+  protected transient volatile ReadLease readLease;
+
+  /* On a primary, the sinks through which its lease holders are revoked; copy-on-write. */
+  protected transient volatile ReadLeaseSink[] leaseHolders = NO_LEASE_HOLDERS;
+
+  /* Guards optimistic reads of the entity's state; lazily created. */
+  protected transient volatile StampedLock accessLock;
+
+  /* The thread holding accessLock's write lock, if any, so its nested reads and writes pass. */
+  private transient volatile Thread writer;
+
+  /* Index of the link chain, built once lookups walk long chains; null until then. */
+  private transient SpaceLinkIndex linkIndex;
+
+  /* Count of modifications to the link chain, which stale any index built before them. */
+  private transient volatile int linkModCount;
+
+  /* The accessor of idFacet for the entity's class, cached by synchKey while current. */
+  private transient PrimaryIdAccessor idAccessor;
+
+  /* Mask of the ATOM flag. */
+  private static final long ATOM_MASK = ATOM.mask;
+
+  /* The lease holders of a primary no replica has connected to. */
+  private static final ReadLeaseSink[] NO_LEASE_HOLDERS = {};
+
+  /* Handle for lazily installing accessLock. */
+  private static final VarHandle ACCESS_LOCK;
   
   // ======================================================================
   // Constructors and Initializers
   // ======================================================================
+  static {
+    try {
+      ACCESS_LOCK = MethodHandles.lookup()
+          .findVarHandle(MetaEntity.class, "accessLock", StampedLock.class);
+    } catch(ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
   public MetaEntity() {}
 
   public MetaEntity(Ent entity) {
@@ -200,7 +261,7 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    */
   public EntityType<Ent> entityType() {
     if(entityType == null)
-      entityType(types_.applyForEntityType(entityClass()));
+      entityType(Type.forEntityClass(entityClass()));
     return entityType;
   }
 
@@ -225,22 +286,35 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    * Sets the entity's identity designated by <code>identityName</code> to <code>identifier</code>.
    */
   public void setId(String identityName, Object identifier) {
+    // try the indexed link, if it still has the identity
+    SpaceLinkIndex index = currentLinkIndex();
+    if(index != null) {
+      SpaceLink link = index.identityLink(identityName);
+      if(link != null && link.hasIdentity(identityName) != IdStatus.Hasnt) {
+        link.setId(identifier);
+        return;
+      }
+    }
+
     SpaceLink link = this;
+    int steps = 0;
     while(link != null) {
       IdStatus status = link.hasIdentity(identityName);
       switch(status) {
         case Has:
+        case Pending:
           link.setId(identifier);
+          if((index = noteWalk(steps)) != null)
+            index.noteIdentityLink(identityName, link);
           return;
         case Hasnt:
           link = link.nextLink;
+          steps++;
           continue;
-        case Pending:
-          link.setId(identifier);
-          return;
       }
     }
     newLinkTo(space, (Id) identifier);
+    invalidateLinkIndex();
   }
 
   /*
@@ -248,7 +322,7 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    */
   void entityMorphedInto(IEntity newEntity) {
     value = (Ent) newEntity;
-    EntityType<Ent> et = types_.applyForEntityType(value.getClass());
+    EntityType<Ent> et = Type.forEntityClass(value.getClass());
     entityType(et);
     // for(MetaEntity link = next; link != null; link = link.next)
     // link.updateMeta(this);
@@ -285,6 +359,33 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     return residence.sender(this, behaviorName);
   }
 
+  /**
+   * Asynchronously forwards a call to the behavior having <code>buid</code>, returning the future
+   * of its reply. Calls to the same residence are multiplexed and pipelined over one tunnel, so
+   * fan-out over forwarders and replicas doesn't serialize on round-trip latency.
+   */
+  public CompletableFuture<Object> sendAsync(long buid, Object... args) {
+    return multiplexer().send(this, buid, args);
+  }
+
+  /**
+   * Asynchronously forwards a call to the behavior having <code>behaviorName</code>, returning the
+   * future of its reply.
+   */
+  public CompletableFuture<Object> sendAsync(String behaviorName, Object... args) {
+    return multiplexer().send(this, behaviorName, args);
+  }
+
+  /*
+   * Returns the multiplexer bound to the entity's residence.
+   */
+  private EntityTunnelMultiplexer multiplexer() {
+    EntityTunnelMultiplexer m = EntityTunnelMultiplexer.forResidence(residence());
+    if(m == null)
+      throw new AbortException("no tunnel bound to residence %s", residence);
+    return m;
+  }
+
   @Override
   public MetaEntity<Id, Ent> primary() {
     return this;
@@ -380,6 +481,13 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     return kernelState.isSketched() && (decorationMask & MS_IN_LIFECYCLE_TRANSITION) == 0;
   }
 
+  /*
+   * Returns the entity type's name, for diagnostics.
+   */
+  private String typeName() {
+    return entityType != null ? entityType.baseName() : "?";
+  }
+
   /**
    * Returns whether the entity is in use.
    */
@@ -387,6 +495,19 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     return (decorationMask & MS_IS_IN_USE) != 0;
   }
 
+  /**
+   * Returns whether the entity may be purged from the cache: it isn't in use, dirty, or locked,
+   * either by a mutator or for writing.
+   */
+  public boolean isEvictable() {
+    if(isInUse() || (kernelState != null && kernelState.isDirty()))
+      return false;
+    StampedLock lock = accessLock;
+    if(lock != null && lock.isWriteLocked())
+      return false;
+    return !(decorationChain instanceof EntityMutator);
+  }
+
   /**
    * Returns whether the entity is prepared.
    */
@@ -553,19 +674,68 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    * Returns the entity's primary link from <code>space</code>.
    */
   public SpaceLink linkFrom(Space space) {
-    for(SpaceLink c = this; c != null; c = c.nextLink) {
-      if(c.space == space)
+    SpaceLinkIndex index = currentLinkIndex();
+    if(index != null)
+      return index.linkFrom(space);
+    int steps = 0;
+    for(SpaceLink c = this; c != null; c = c.nextLink, steps++) {
+      if(c.space == space) {
+        noteWalk(steps);
         return c;
+      }
     }
+    noteWalk(steps);
     return null;
   }
 
   /**
-   * Sets the pool to which the entity belongs.
+   * Notes that the link chain's been modified, discarding its index, if any; called whenever links
+   * are spliced into or out of the chain, e.g. by spaces adding and removing bindings.
+   */
+  public void invalidateLinkIndex() {
+    linkModCount++;
+    linkIndex = null;
+  }
+
+  /*
+   * Returns the count of modifications to the link chain.
+   */
+  int linkModCount() {
+    return linkModCount;
+  }
+
+  /*
+   * Returns the link index if there's one and it's current, else null.
+   */
+  private SpaceLinkIndex currentLinkIndex() {
+    SpaceLinkIndex index = linkIndex;
+    if(index != null && !index.isCurrent(this))
+      linkIndex = index = null;
+    return index;
+  }
+
+  /*
+   * Notes that a lookup walked steps links, building the index if that's past the threshold.
+   * Returns the index, or null if there's none.
+   */
+  private SpaceLinkIndex noteWalk(int steps) {
+    SpaceLinkIndex index = linkIndex;
+    if(index == null && steps > SpaceLinkIndex.THRESHOLD)
+      linkIndex = index = new SpaceLinkIndex(this);
+    return index;
+  }
+
+  /**
+   * Sets the pool to which the entity belongs, rebinding the existing pool decoration if any.
    */
   public void pool(ResourcePool pool) {
-    new PoolDecoration(this, pool);
-    decorationMask |= MS_IS_POOLED;
+    PoolDecoration binding = getPoolBinding();
+    if(binding != null) {
+      binding.pool = pool;
+    } else {
+      new PoolDecoration(this, pool);
+      decorationMask |= MS_IS_POOLED;
+    }
   }
 
   /**
@@ -602,13 +772,20 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    * Returns the containing space having class <code>spaceClass</code>.
    */
   public <S extends Space> S spaceOfClass(Class<S> spaceClass) {
+    SpaceLinkIndex index = currentLinkIndex();
+    if(index != null) {
+      SpaceLink link = index.linkOfSpaceClass(this, spaceClass);
+      return link != null ? (S) link.space : null;
+    }
     S space = null;
-    for(SpaceLink link = this; link != null; link = link.nextLink) {
+    int steps = 0;
+    for(SpaceLink link = this; link != null; link = link.nextLink, steps++) {
       if(spaceClass.isInstance(link.space)) {
         space = (S) link.space;
         break;
       }
     }
+    noteWalk(steps);
     return space;
   }
 
@@ -656,11 +833,91 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
   }
 
   /**
-   * Deallocates this component, returning it to its pool.
+   * Deallocates this component, returning it to its pool. When the pool decoration heads the
+   * decoration chain (the usual case), this neither locks nor allocates.
    */
   public void deallocate() {
-    if((decorationMask & MS_IS_POOLED) > 0)
-      getPoolBinding().pool.returnToPool(value);
+    if((decorationMask & MS_IS_POOLED) == 0)
+      return;
+    PoolDecoration binding = decorationChain instanceof PoolDecoration
+        ? (PoolDecoration) decorationChain
+        : getPoolBinding();
+    binding.pool.returnToPool(value);
+  }
+
+  /**
+   * Resets this meta in place for reuse of its (pooled) entity: unregisters it, unbinds it from
+   * all of its spaces, and clears its key, links, decorations (other than its pool binding),
+   * kernel state, flags, and all other per-use state, while keeping its type and entity.
+   * <p>
+   * The releasing thread owns the entity, so the reset takes no lock of its own, and keeps the
+   * pool binding and kernel state objects in place; releasing an entity that was never registered,
+   * linked or decorated beyond its pool binding therefore neither locks nor allocates.
+   */
+  public void resetForReuse() {
+    unregister();
+
+    // unbind from every space before dropping the links
+    for(SpaceLink link = this; link != null; link = link.nextLink) {
+      if(link.space != null)
+        link.space.removeBinding(link);
+    }
+    space = null;
+    nextLink = null;
+    invalidateLinkIndex();
+    registryBucketChain = null;
+    key = null;
+    shortcut = 0;
+    residence = null;
+
+    // drop the per-use decorations (event channel, serial id, version) and mask bits, keeping the
+    // pool binding and its bit
+    EventChannel channel = eventChannel();
+    if(channel != null) {
+      if(isFanOut(channel))
+        channel.disconnect();
+      removeDecoration(eventChannelAttachment());
+    }
+    SerialIdDecoration serialId = serialIdDecoration();
+    if(serialId != null)
+      removeDecoration(serialId);
+    VersionDecoration version = versionDecoration();
+    if(version != null)
+      removeDecoration(version);
+    decorationMask &= MS_IS_POOLED;
+
+    if(kernelState != null) {
+      kernelState.reset();
+    } else {
+      initKernelState();
+    }
+    flags = null;
+    flagMask = 0;
+    readLease = null;
+    leaseHolders = NO_LEASE_HOLDERS;
+    accessLock = null;
+    writer = null;
+    idAccessor = null;
+  }
+
+  /**
+   * Returns a thread-caching pool of instances of <code>valueType</code>, holding up to
+   * <code>magazineSize</code> entities per thread magazine and <code>depotSize</code> shared
+   * magazines. Released entities have their metas reset in place.
+   */
+  public static <F extends IEntity> MagazinePool<F> newEntityPool(
+      EntityType<F> valueType, int magazineSize, int depotSize) {
+    MagazinePool<F>[] pool = new MagazinePool[1];
+    pool[0] = new MagazinePool<F>(
+        () -> {
+          MetaEntity<Object, F> meta = new MetaEntity(valueType, (Space) null);
+          meta.pool(pool[0]);
+          return meta.value;
+        },
+        e -> e.meta().resetForReuse(),
+        magazineSize,
+        depotSize);
+    return pool[0];
   }
 
   /**
@@ -678,7 +935,13 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     super.finishCloning();
     registered = false;
     nextLink = null;
+    linkIndex = null;
     registryBucketChain = null;
+    readLease = null;
+    leaseHolders = NO_LEASE_HOLDERS;
+    accessLock = null;
+    writer = null;
+    idAccessor = null;
     if(sidd != null) {
       removeDecoration(sidd);
       assignSerialId();
@@ -688,7 +951,7 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
   @Override
   public void finishInit() {
     if(entityType == null)
-      entityType(types_.apply(value.getClass()));
+      entityType((Type<Ent>) Type.forClass(value.getClass()));
   }
   
   /**
@@ -744,16 +1007,27 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     }
 
     // if id state is onboard, and not the key, set the id
-    if(!idFacet.isMetaKeyFacet() && idFacet.apply(value) != key) {
-      if(idFacet.canReturn(key)) {
-        idFacet.put(value, key);
+    PrimaryIdAccessor ids = idAccessor();
+    if(ids.isOnboard() && !ids.holds(value, key)) {
+      if(ids.canHold(key)) {
+        ids.set(value, key);
       } else {
         idFacet = entityType.idFacetFor(key);
-        if(!idFacet.isMetaKeyFacet())
-          idFacet.put(value, key);
+        idAccessor().set(value, key);
       }
     }
   }
+
+  /*
+   * Returns the accessor of idFacet for the entity's class, consulting the shared per-class cache
+   * only when the meta's cached accessor is for another facet, or stale.
+   */
+  private PrimaryIdAccessor idAccessor() {
+    PrimaryIdAccessor ids = idAccessor;
+    if(ids == null || !ids.isCurrentFor(idFacet))
+      idAccessor = ids = PrimaryIdAccessor.forFacet(idFacet, value.getClass());
+    return ids;
+  }
   
   /**
    * If the space and key are bound, computes the hash code, sets the homebase, assigns a shortcut
@@ -777,6 +1051,11 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     // insert this into <code>entityRegistry</code>
     entityRegistry.add(this);
 
+    // subject it to eviction, if budgeted
+    EntityCacheManager cache = EntityCacheManager.current;
+    if(cache != null && value != null)
+      cache.admitted(this);
+
     return true;
   }
 
@@ -794,13 +1073,20 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
   /**
    * Remove this metaobject from the registry.
    */
-  public synchronized void unregister() {
-    if(registered) {
-      if(entityType != null)
-        entityType.unregisterInstance(value);
-      if(entityRegistry != null)
-        entityRegistry.remove(this);
-      super.unregister();
+  public void unregister() {
+    if(!registered)
+      return;
+    synchronized(this) {
+      if(registered) {
+        if(entityType != null)
+          entityType.unregisterInstance(value);
+        if(entityRegistry != null)
+          entityRegistry.remove(this);
+        EntityCacheManager cache = EntityCacheManager.current;
+        if(cache != null)
+          cache.removed(this);
+        super.unregister();
+      }
     }
   }
 
@@ -826,6 +1112,63 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     return (F) link.newProxy(key);
   }
 
+  /**
+   * Creates and returns new entity instances of <code>valueType</code>, one per key in
+   * <code>keys</code>, contained in <code>space</code> (if non-null), materializing them as a
+   * batch per {@link EntityBatchFactory}.
+   */
+  public static <F extends IEntity> List<F> newEntities(
+      EntityType<F> valueType, Space space, Object[] keys) {
+    return new EntityBatchFactory<F>(valueType, space).newEntities(keys);
+  }
+
+  /**
+   * Creates and returns new storage proxies of <code>valueType</code>, one per key in
+   * <code>keys</code>, contained in <code>space</code>, materializing them as a batch.
+   */
+  public static <F extends IEntity> List<F> NewProxies(
+      EntityType<F> valueType, Space space, Object[] keys) {
+    return new EntityBatchFactory<F>(valueType, space).newProxies(keys);
+  }
+
+  /*
+   * Registers the metas <code>metas[0..count)</code>, all of the same site, as synchInvariants
+   * does one meta at a time: assigns their residence and shortcuts, inserts them into the entity
+   * registry in one batch (under the registry's own locking), admits them to the cache, and adds
+   * their entities to their type's extent.
+   */
+  static void registerAll(MetaEntity[] metas, int count) {
+    if(count == 0)
+      return;
+    EntityResidence home = metas[0].residence();
+    for(int i = 0; i < count; i++) {
+      MetaEntity meta = metas[i];
+      meta.residence = home;
+      if(meta.shortcut == 0 && !(meta.value instanceof Site))
+        meta.shortcut = EntityRegistry.getUniqueInt();
+    }
+    metas[0].entityRegistry.addAll(metas, count);
+    EntityCacheManager cache = EntityCacheManager.current;
+    for(int i = 0; i < count; i++) {
+      MetaEntity meta = metas[i];
+      if(cache != null && meta.value != null)
+        cache.admitted(meta);
+      meta.entityType.registerInstance(meta.value);
+    }
+  }
+
+  /*
+   * Restores checkpointed state onto this meta, a proxy not yet registered: its shortcut, its
+   * residence (if non-null), and those decorations in decorationMask that have no decoration
+   * object. See {@link RegistryCheckpoint}.
+   */
+  void restoreCheckpointed(int shortcut, EntityResidence home, long decorationMask) {
+    this.shortcut = shortcut;
+    if(home != null)
+      residence = home;
+    this.decorationMask |= decorationMask & (MS_IS_TEMPLATE | MS_IS_UNIQUIZING);
+  }
+
   // ---------------------------
   // Entity Creation
   // ---------------------------
@@ -833,7 +1176,14 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    * Creates and binds a raw (uninitialized) entity.
    */
   public Ent createEntity() {
-    Ent entity = entityType.instance();
+    return createEntity(entityType.instance());
+  }
+
+  /**
+   * Binds <code>entity</code>, a fresh instance of the entity's type (e.g. made by a batch
+   * through its type's <code>instanceConstructor()</code>), as the meta's entity, and returns it.
+   */
+  public Ent createEntity(Ent entity) {
     entity.meta(this);
     if(key != null)
       entity.pidChanged(key);
@@ -875,7 +1225,15 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
   }
 
   /**
-   * Returns whether all <code>flags</codes> are contained in the flagset.
+   * Returns the flag mask.
+   */
+  public long flagMask() {
+    return flagMask;
+  }
+
+  /**
+   * Returns whether all <code>flags</codes> are contained in the flagset. Hot paths should use
+   * {@link #hasAll(long)} or {@link #matches(FlagQuery)}, which don't allocate.
    */
   public boolean hasAll(Flag... flags) {
     for(Flag t : flags) {
@@ -885,13 +1243,27 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     return true;
   }
 
+  /**
+   * Returns whether all bits of <code>mask</code> are set in the flag mask.
+   */
+  public boolean hasAll(long mask) {
+    return (flagMask & mask) == mask;
+  }
+
+  /**
+   * Returns whether the flag mask satisfies <code>query</code>.
+   */
+  public boolean matches(FlagQuery query) {
+    return query.test(flagMask);
+  }
+
   public void inherit(MetaEntity parent) {
     if(flags != parent.flags && parent.flags != null) 
       plus(parent.flags);
   }
 
   public boolean isAtom() {
-    return ATOM.test(flagMask);
+    return (flagMask & ATOM_MASK) != 0;
   }
 
   /**
@@ -1001,12 +1373,12 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     Id k = key;
 
     // return primaryId if key is unbound
-    // try getting value of primaryIdFacet
-    if(k == null && entityType != null) {
-      Facet piFacet = entityType.primaryIdFacet();
-      // check whether this just comes back here
-      if(piFacet != null && !piFacet.isMetaKeyFacet())
-        k = (Id) piFacet.apply(value);
+    // try getting value of primaryIdFacet, via its cached accessor
+    if(k == null && entityType != null && value != null) {
+      PrimaryIdAccessor ids = PrimaryIdAccessor.forType(entityType, value.getClass());
+      // a meta key facet would just come back here
+      if(ids.isOnboard())
+        k = (Id) ids.get(value);
     }
 
     // update key with new value
@@ -1056,18 +1428,67 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    * transaction.
    */
   public synchronized void deleteIn(Transaction transaction) {
+    revokeReadLeases();
     if(isRemote()) {
       // LATER: handle remote proxies
       throw new Unfinished();
     } else if(!isInTransition(deleting)) {
-      EntityMutator mutator = mutator(transaction, space);
-      for(SpaceLink link = this; link != null; link = link.nextLink) {
-        if(link.space() != null)
-          mutator.addEvent(new EntityDeletedEvent());
+      EntityDelete event = new EntityDelete();
+      event.begin();
+      write(meta -> {
+        EntityMutator mutator = mutator(transaction, space);
+        for(SpaceLink link = this; link != null; link = link.nextLink) {
+          if(link.space() != null)
+            mutator.addEvent(new EntityDeletedEvent());
+        }
+      });
+      event.end();
+      if(event.shouldCommit()) {
+        event.typeName = typeName();
+        event.key = String.valueOf(key);
+        event.commit();
       }
     }
   }
 
+  /**
+   * Returns the metas of the entities that must be deleted along with this one, i.e. its dependent
+   * referencers and referencees, to which {@link BulkDeletion} cascades. By default, none.
+   */
+  public Collection<MetaEntity> dependents() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Deletes the instances in <code>extent</code> satisfying <code>predicate</code>, cascading to
+   * their {@link #dependents} in batches per {@link BulkDeletion}. Performs the operation in <code>transaction</code> if
+   * non-null, else in its own transaction. Returns the number of entities deleted.
+   */
+  public static <E extends IEntity> int deleteAll(
+      TypeExtent<E> extent, Predicate<? super E> predicate, Transaction transaction) {
+    return new BulkDeletion(transaction).where(extent, predicate).execute();
+  }
+
+  /**
+   * Deletes the instances in <code>extent</code> having <code>keys</code>, as per
+   * {@link #deleteAll(TypeExtent, Predicate, Transaction)}.
+   */
+  public static int deleteAll(
+      TypeExtent<? extends IEntity> extent, Collection<?> keys, Transaction transaction) {
+    return new BulkDeletion(transaction).keys(extent, keys).execute();
+  }
+
+  /**
+   * Deletes the entities of this entity's type having <code>keys</code>. This is a support method
+   * invoked by remote proxies' bulk deletions, hence runs at the primaries' residence, in a
+   * transaction of its own rather than the requester's.
+   *
+   * @forward
+   */
+  public int deletePrimaries(Object[] keys) {
+    return deleteAll(entityType.extent(), Arrays.asList(keys), null);
+  }
+
   // ---------------------------
   // Synchronization
   // ---------------------------
@@ -1097,25 +1518,77 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
    * Ensures that the entity's content is up-to-date with respect to any underlying stored and/or
    * remote images.
    */
-  public synchronized void readState() {
-    if(kernelState.needsToBeFetched() && transition() != fetching) {
-      mutator().doAtomically(m -> m.addEvent(new EntityFetchedEvent()));
+  public void readState() {
+    EntityCacheManager cache = EntityCacheManager.current;
+    if(cache != null && registered)
+      cache.accessed(this);
+
+    // a replica in lease mode serves reads locally only while holding a valid read lease; once
+    // the lease is revoked or lapses, its local state may be stale, so it's refetched
+    ReadLease lease = readLease;
+    boolean leased = lease != null && !lease.isGrant;
+    if(leased && lease.isValid())
+      return;
+
+    // skip the monitor in the common, already up-to-date case
+    if(!leased && !kernelState.needsToBeFetched())
+      return;
+
+    boolean fetched = false;
+    EntityFetch event = new EntityFetch();
+    event.begin();
+    synchronized(this) {
+      if((leased || kernelState.needsToBeFetched()) && transition() != fetching) {
+        mutator().doAtomically(m -> m.addEvent(new EntityFetchedEvent()));
+        fetched = true;
+      }
+    }
+    event.end();
+    if(fetched && event.shouldCommit()) {
+      event.typeName = typeName();
+      event.key = String.valueOf(key);
+      event.commit();
     }
+
+    // if in lease mode, piggyback a renewal on the round trip just taken
+    if(fetched && leased)
+      renewLease();
   }
 
   /**
    * Ensures that entity's kernelState is up-to-date with respect to any underlying stored and/or remote
    * images.
    */
-  public synchronized void synchKernelState() {
+  public void synchKernelState() {
     if(kernelState == null)
       return;
+
+    // skip the monitor in the common, already synchronized case
+    if(!kernelState.needsToBeFetched() && !kernelState.isDirty())
+      return;
+    synchronized(this) {
+      doSynchKernelState();
+    }
+  }
+
+  /*
+   * Synchronizes the kernelState, under the meta's monitor.
+   */
+  private void doSynchKernelState() {
     StateTransition transition = transition();
     EntityMutator mutator = null;
     if(kernelState.needsToBeFetched() && transition != fetching) {
+      EntityFetch event = new EntityFetch();
+      event.begin();
       mutator = mutator();
       mutator.addEvent(new EntityFetchedEvent());
-      mutator.transaction.commit();
+      commitTransaction(mutator);
+      event.end();
+      if(event.shouldCommit()) {
+        event.typeName = typeName();
+        event.key = String.valueOf(key);
+        event.commit();
+      }
     } else if(kernelState.isDirty() && transition != storing) {
       // mutator = getWriteCoordinator(null);
       // mutator.addEvent(new EntityFetchedEvent(next));
@@ -1124,6 +1597,21 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     }
   }
 
+  /*
+   * Commits mutator's transaction, recording the commit as a TransactionCommit event.
+   */
+  private void commitTransaction(EntityMutator mutator) {
+    TransactionCommit commit = new TransactionCommit();
+    commit.begin();
+    mutator.transaction.commit();
+    commit.end();
+    if(commit.shouldCommit()) {
+      commit.typeName = typeName();
+      commit.key = String.valueOf(key);
+      commit.commit();
+    }
+  }
+
   // ---------------------------
   // Updating
   // ---------------------------
@@ -1149,9 +1637,20 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
       throw new AbortException("facet doesn't exist: %s.%s", entityType.baseName(), facetName);
 
     if(isRegistered() && facet.isPersistable()) {
-      mutator().doAtomically(m -> facet.updateEntity(value, oldValue, newValue, false, m.transaction));
+      EntityStore event = new EntityStore();
+      event.begin();
+      mutator().doAtomically(m -> updateRevokingLeases(() -> write(meta ->
+          facet.updateEntity(value, oldValue, newValue, false, m.transaction))));
+      event.end();
+      if(event.shouldCommit()) {
+        event.typeName = typeName();
+        event.key = String.valueOf(key);
+        event.facetName = facetName;
+        event.commit();
+      }
     } else {
-      facet.updateEntity(value, oldValue, newValue, false, null);
+      updateRevokingLeases(
+          () -> write(meta -> facet.updateEntity(value, oldValue, newValue, false, null)));
     }
   }
 
@@ -1159,14 +1658,17 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
   // Transaction Management
   // ---------------------------
   /**
-   * Atomically applies <code>event</code> to entity.
+   * Atomically applies <code>event</code> to entity, under the write lock, revoking any
+   * outstanding read leases first.
    */
   public void applyEvent(EntityLifecycleEvent event) {
-    if(isRegistered()) {
-      mutator().doAtomically(m -> m.addEvent(event));
-    } else {
-      event.distribute();
-    }
+    updateRevokingLeases(() -> write(meta -> {
+      if(isRegistered()) {
+        mutator().doAtomically(m -> m.addEvent(event));
+      } else {
+        event.distribute();
+      }
+    }));
   }
 
   /**
@@ -1229,6 +1731,105 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     throw new Unfinished();
   }
 
+  // ---------------------------
+  // Optimistic Access
+  // ---------------------------
+  /**
+   * Returns the result of applying <code>reader</code> to this meta, without locking unless a write
+   * intervenes: the reader first runs against a version stamp, and its result is returned if no
+   * writer ran meanwhile; otherwise it reruns under a read lock. Readers must therefore be free of
+   * side effects, and tolerate seeing torn state on the optimistic pass (any exception they throw
+   * on that pass is treated as a conflict). A read nested in a {@link #write} on the same thread
+   * runs directly, under the enclosing write lock.
+   */
+  public <R> R read(Function<? super MetaEntity<Id, Ent>, R> reader) {
+    if(writer == Thread.currentThread())
+      return reader.apply(this);
+    StampedLock lock = accessLock();
+    long stamp = lock.tryOptimisticRead();
+    if(stamp != 0) {
+      try {
+        R result = reader.apply(this);
+        if(lock.validate(stamp))
+          return result;
+      } catch(RuntimeException e) {
+        if(lock.validate(stamp))
+          throw e;
+      }
+    }
+
+    // conflict, so fall back to a read lock
+    stamp = lock.readLock();
+    try {
+      return reader.apply(this);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Applies <code>writer</code> to this meta under the write lock, invalidating concurrent
+   * optimistic reads. Since the lock isn't reentrant, the holding thread is noted, so that
+   * callbacks the writer triggers (e.g. facet update notifications) may nest reads and writes of
+   * the same meta, which run directly under the enclosing lock rather than deadlocking.
+   */
+  public void write(Consumer<? super MetaEntity<Id, Ent>> writer) {
+    Thread current = Thread.currentThread();
+    if(this.writer == current) {
+      writer.accept(this);
+      return;
+    }
+    StampedLock lock = accessLock();
+    long stamp = lock.writeLock();
+    this.writer = current;
+    try {
+      writer.accept(this);
+    } finally {
+      this.writer = null;
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Upgrades the read lock held under <code>readStamp</code> to a write lock, returning the write
+   * stamp, to be released through {@link #unlockWrite}. If the upgrade can't be done in place, the
+   * read lock is released and the write lock acquired, so the caller must revalidate whatever it
+   * read. Used by <code>EntityMutator</code>s that decide to write after reading; until released,
+   * the caller's nested reads and writes of the meta run directly, as within {@link #write}.
+   */
+  public long upgradeToWrite(long readStamp) {
+    StampedLock lock = accessLock();
+    long stamp = lock.tryConvertToWriteLock(readStamp);
+    if(stamp == 0) {
+      lock.unlockRead(readStamp);
+      stamp = lock.writeLock();
+    }
+    writer = Thread.currentThread();
+    return stamp;
+  }
+
+  /**
+   * Releases the write lock acquired by {@link #upgradeToWrite} under <code>writeStamp</code>.
+   */
+  public void unlockWrite(long writeStamp) {
+    writer = null;
+    accessLock().unlockWrite(writeStamp);
+  }
+
+  /**
+   * Returns the lock guarding optimistic access, lazily creating it.
+   */
+  public StampedLock accessLock() {
+    StampedLock lock = accessLock;
+    if(lock == null) {
+      StampedLock newLock = new StampedLock();
+      lock = (StampedLock) ACCESS_LOCK.compareAndExchange(this, null, newLock);
+      if(lock == null)
+        lock = newLock;
+    }
+    return lock;
+  }
+
   /**
    * Releases the current read or write lock on entity, if any.
    */
@@ -1292,6 +1893,192 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     return this;
   }
 
+  /**
+   * Become a replica based on the new residence, in lease mode: unless the entity is immutable
+   * (in which case it's always safe to read locally), the replica serves reads locally only while
+   * holding a read lease of <code>leaseMillis</code> granted by its primary, and drops the lease
+   * when the primary revokes it upon being updated.
+   * <p>
+   * The primary doesn't apply an update until each holder has acknowledged its revocation, so a
+   * replica never serves reads the update has made stale; a holder that can't be reached holds
+   * the update up until its lease lapses.
+   */
+  public MetaEntity becomeLeasedReplica(EntityResidence newResidence, long leaseMillis) {
+    becomeReplica(newResidence);
+    if(!entityType.isImmutable()) {
+      readLease = ReadLease.unacquired(TimeUnit.MILLISECONDS.toNanos(leaseMillis));
+      sendAsync("connectLeaseHolder", site());
+      renewLease();
+    }
+    return this;
+  }
+
+  /**
+   * Returns whether the entity is a replica currently holding a valid read lease, hence can serve
+   * reads without checking with its primary.
+   */
+  public boolean hasReadLease() {
+    ReadLease lease = readLease;
+    return lease != null && !lease.isGrant && lease.isValid();
+  }
+
+  /**
+   * Asynchronously requests a fresh read lease from the primary, returning the future of the
+   * granted epoch, or a completed future of null if the entity isn't a replica in lease mode.
+   */
+  public CompletableFuture<Object> renewLease() {
+    ReadLease lease = readLease;
+    if(lease == null || lease.isGrant)
+      return CompletableFuture.completedFuture(null);
+    long requestedAt = System.nanoTime();
+    return sendAsync("grantLease", TimeUnit.NANOSECONDS.toMillis(lease.durationNanos))
+        .thenApply(epoch -> {
+          leaseGranted((Long) epoch, requestedAt);
+          return epoch;
+        });
+  }
+
+  /*
+   * Installs the holding of <code>epoch</code> requested at <code>requestedAt</code>, unless the
+   * epoch was revoked while the grant was in transit.
+   */
+  synchronized void leaseGranted(long epoch, long requestedAt) {
+    ReadLease lease = readLease;
+    if(lease != null && !lease.isGrant && lease.admits(epoch))
+      readLease = lease.renewed(epoch, requestedAt);
+  }
+
+  /**
+   * Receives notification from the primary that leases of <code>epoch</code> and earlier are
+   * revoked. Revoking the holding invalidates the replica's local state, which the next read
+   * refetches from the primary (renewing the lease on the way).
+   *
+   * @forward
+   */
+  public synchronized void leaseRevoked(long epoch) {
+    ReadLease lease = readLease;
+    if(lease != null && !lease.isGrant && lease.epoch <= epoch)
+      readLease = lease.revoked(epoch);
+  }
+
+  /**
+   * Grants a read lease of <code>durationMillis</code> to a requesting replica, returning its
+   * epoch. While a grant is outstanding, further requests share its epoch and extend it; after
+   * a revocation, the next grant opens a new epoch.
+   *
+   * @forward
+   */
+  public synchronized long grantLease(long durationMillis) {
+    long now = System.nanoTime();
+    long duration = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    ReadLease grant = readLease;
+    long epoch;
+    long expiresAt = now + duration;
+    if(grant == null) {
+      epoch = 1;
+    } else if(grant.isValid()) {
+      epoch = grant.epoch;
+      expiresAt = Math.max(expiresAt, grant.expiresAt);
+    } else {
+      epoch = grant.epoch + 1;
+    }
+    readLease = ReadLease.grant(epoch, duration, expiresAt);
+    return epoch;
+  }
+
+  /**
+   * Connects the replica of the entity residing at <code>holder</code> to this primary's lease
+   * revocations, through a {@link ReadLeaseSink} on which revocations are awaited.
+   *
+   * @forward
+   */
+  public synchronized void connectLeaseHolder(EntityResidence holder) {
+    for(ReadLeaseSink sink : leaseHolders) {
+      if(sink.holder.equals(holder))
+        return;
+    }
+    ReadLeaseSink[] holders = Arrays.copyOf(leaseHolders, leaseHolders.length + 1);
+    holders[holders.length - 1] = new ReadLeaseSink(this, holder);
+    leaseHolders = holders;
+  }
+
+  /**
+   * If read leases on this primary are outstanding, revokes them, returning once every holder has
+   * acknowledged (or its lease has lapsed), and then emits the revocation on the entity's event
+   * channel. Must be called holding the entity's monitor, together with the update or deletion it
+   * precedes, so no lease can be granted in between.
+   */
+  protected void revokeReadLeases() {
+    LeaseRevokedEvent revocation = revokeReadLeasesLocked();
+    if(revocation != null) {
+      awaitRevocation(revocation);
+      forwardEvent(revocation);
+    }
+  }
+
+  /*
+   * Performs update under the entity's monitor, which grantLease also holds, revoking any
+   * outstanding read leases first, so no lease can be granted between the revocation and the
+   * update. The update waits for the holders' acknowledgements, so no holder still serves local
+   * reads once it's applied; refetches block on the monitor until it's done, so they see it.
+   */
+  private void updateRevokingLeases(Runnable update) {
+    LeaseRevokedEvent revocation;
+    synchronized(this) {
+      revocation = revokeReadLeasesLocked();
+      if(revocation != null)
+        awaitRevocation(revocation);
+      update.run();
+    }
+    if(revocation != null)
+      forwardEvent(revocation);
+  }
+
+  /*
+   * Revokes the outstanding grant, if any, returning the event notifying its holders, else null.
+   * The caller holds the entity's monitor.
+   */
+  private LeaseRevokedEvent revokeReadLeasesLocked() {
+    ReadLease grant = readLease;
+    if(grant == null || !grant.isGrant || !grant.isValid())
+      return null;
+    readLease = grant.revoked(grant.epoch);
+    return new LeaseRevokedEvent(key, grant.epoch, grant.expiresAt);
+  }
+
+  /*
+   * Sends revocation to each lease holder, and waits until all have acknowledged it, or the
+   * revoked grant has expired, after which no holding of it can be valid. A holder that can't be
+   * reached, or fails to acknowledge, is waited out until the expiry.
+   */
+  private void awaitRevocation(LeaseRevokedEvent revocation) {
+    ReadLeaseSink[] holders = leaseHolders;
+    CompletableFuture<?>[] acks = new CompletableFuture<?>[holders.length];
+    boolean unreachable = false;
+    for(int i = 0; i < holders.length; i++) {
+      acks[i] = holders[i].revoke(revocation.epoch);
+      if(acks[i] == null) {
+        unreachable = true;
+        acks[i] = CompletableFuture.completedFuture(null);
+      }
+    }
+    try {
+      long remaining = revocation.expiresAt - System.nanoTime();
+      if(remaining > 0)
+        CompletableFuture.allOf(acks).get(remaining, TimeUnit.NANOSECONDS);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AbortException("interrupted revoking read leases on %s", key);
+    } catch(ExecutionException | TimeoutException e) {
+      unreachable = true;
+    }
+    if(unreachable) {
+      long remaining;
+      while((remaining = revocation.expiresAt - System.nanoTime()) > 0)
+        LockSupport.parkNanos(this, remaining);
+    }
+  }
+
   /**
    * Replicate entity.
    */
@@ -1335,50 +2122,96 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
   // ---------------------------
   /**
    * Creates an event connection to the event <code>channel</code>. Ignored if
-   * <code>channel.isStub()</code>. This method will replace the current channel binding with an event
-   * channel if necessary to properly handle fan-out.
+   * <code>channel.isStub()</code>. A single sink is bound directly; once a second sink connects,
+   * the binding is replaced with a fan-out channel feeding all of them synchronously, unless the
+   * entity has opted into asynchronous delivery via {@link #fanOutEventsAsynchronously}.
+   * <p>
+   * Once a fan-out channel is bound, connection is lock-free, swapping the channel's copy-on-write
+   * sink array; only rebinding the entity's channel takes the entity's monitor.
    */
   public void connectTo(EventChannel<Event> channel) {
     if(channel.isStub())
       return;
-    EventChannelAttachment attachment = eventChannelAttachment();
-    if(attachment != null) {
-      EventChannel currentChannel = attachment.channel;
+    // a connection racing a rebinding retries on the new channel
+    EventChannel currentChannel;
+    while(isFanOut(currentChannel = eventChannel())) {
+      currentChannel.connectTo(channel);
+      if(eventChannel() == currentChannel)
+        return;
+    }
+    synchronized(this) {
+      currentChannel = eventChannel();
       if(currentChannel == null) {
-        attachment.channel = channel;
-      } else {
-        EventChannel ch = null;
-        if(currentChannel instanceof EventChannel) {
-          ch = (EventChannel) currentChannel;
-        } else {
-          ch = new EventChannel();
-          attachment.channel = ch;
-        }
-        ch.connectTo(channel);
+        eventChannel(channel);
+      } else if(isFanOut(currentChannel)) {
+        currentChannel.connectTo(channel);
+      } else if(currentChannel != channel) {
+        EventChannel<Event> fanOut = new EventChannel<>();
+        fanOut.connectTo(currentChannel);
+        fanOut.connectTo(channel);
+        eventChannel(fanOut);
       }
-    } else {
-      eventChannel(channel);
     }
   }
 
   /**
    * Disconnect the event connection from the entity's eventChannel to the given channel.
-   */
-  public synchronized void disconnectFrom(EventChannel<Event> channel) {
-    EventChannelAttachment attachment = eventChannelAttachment();
-    if(attachment != null) {
-      EventChannel currentChannel = attachment.channel;
+   * Disconnecting from a fan-out channel is lock-free; the fan-out channel stays bound once its
+   * last sink leaves, so that a concurrent lock-free connection to it is never lost.
+   */
+  public void disconnectFrom(EventChannel<Event> channel) {
+    EventChannel currentChannel;
+    while(isFanOut(currentChannel = eventChannel())) {
+      currentChannel.disconnectFrom(channel);
+      if(eventChannel() == currentChannel)
+        return;
+    }
+    synchronized(this) {
+      EventChannelAttachment attachment = eventChannelAttachment();
+      if(attachment == null)
+        return;
+      currentChannel = attachment.channel;
       if(channel == currentChannel) {
-        eventChannel(null);
-      } else if(currentChannel instanceof EventChannel) {
-        EventChannel ch = (EventChannel) currentChannel;
-        ch.disconnectFrom(channel);
-        if(ch.getSinks() == null || ch.getSinks().isEmpty())
-          eventChannel(null);
+        removeDecoration(attachment);
+      } else if(currentChannel != null) {
+        currentChannel.disconnectFrom(channel);
       }
     }
   }
 
+  /**
+   * Opts the entity into asynchronous event delivery: binds a
+   * <code>RingBufferEventChannel</code> as its event channel, moving any connected sinks to it,
+   * so that slow sinks don't stall the thread updating the entity. Returns the channel.
+   */
+  public synchronized RingBufferEventChannel<Event> fanOutEventsAsynchronously() {
+    EventChannel currentChannel = eventChannel();
+    if(currentChannel instanceof RingBufferEventChannel)
+      return (RingBufferEventChannel<Event>) currentChannel;
+    RingBufferEventChannel<Event> fanOut = new RingBufferEventChannel<>();
+    if(isFanOut(currentChannel)) {
+      // move the sinks once bound, so lock-free (dis)connections racing the move see the new
+      // binding and retry on it
+      eventChannel(fanOut);
+      for(Object sink : currentChannel.getSinks())
+        fanOut.connectTo((EventChannel<Event>) sink);
+      currentChannel.disconnect();
+    } else {
+      if(currentChannel != null)
+        fanOut.connectTo(currentChannel);
+      eventChannel(fanOut);
+    }
+    return fanOut;
+  }
+
+  /*
+   * Returns whether channel is a fan-out channel bound by the entity, rather than a sink.
+   */
+  private static boolean isFanOut(EventChannel channel) {
+    return channel instanceof RingBufferEventChannel
+        || channel != null && channel.getClass() == EventChannel.class;
+  }
+
   /**
    * Forwards the given <code>event</code> to via the event channel, if one is bound.
    */
@@ -1390,6 +2223,10 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
 
   /**
    * Receives notification that the entity is a space whose contents have changed.
+   * <p>
+   * Within a transaction, notices coalesce in its {@link ContentChangeBatch}: each meta on the
+   * containment chain is marked once, and propagation stops at the first one already marked;
+   * stored images are rewritten once, when the batch flushes before the transaction commits.
    */
   public void noteContentsChanged() {
     // if end of chain, done
@@ -1408,8 +2245,17 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     if(space == value)
       return;
 
+    // if coalescing, stop at the first ancestor already marked
+    ContentChangeBatch batch = ContentChangeBatch.of(mutator().transaction);
+    if(batch != null && !batch.mark(this))
+      return;
+
     if(isPersistent() && space.isStorage()) {
-      mutator().doAtomically(m -> m.addEvent(new NoteContentUpdatedEvent()));
+      if(batch != null) {
+        batch.dirty(this);
+      } else {
+        scheduleContentsRewrite();
+      }
     }
 
     // otherwise, propagate the notice up the link hierarchy
@@ -1422,6 +2268,13 @@ public class MetaEntity<Id extends Object, Ent extends IEntity>
     }
   }
 
+  /*
+   * Schedules rewriting the entity's stored image to reflect its changed contents.
+   */
+  void scheduleContentsRewrite() {
+    mutator().doAtomically(m -> m.addEvent(new NoteContentUpdatedEvent()));
+  }
+
   // ---------------------------
   // Flows
   // ---------------------------
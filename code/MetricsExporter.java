@@ -0,0 +1,31 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.system.stats;
+
+/****************************************************************************
+ * <code>MetricsExporter</code> publishes a {@link TypeStats} to operators' monitoring, e.g. as a
+ * JMX MBean ({@link JmxMetricsExporter}) or as scrapeable text ({@link TextMetricsExporter}).
+ * Exporters read the stats live, so publishing is done once, not per update.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public interface MetricsExporter
+{
+  /**
+   * Starts publishing <code>stats</code>.
+   */
+  void publish(TypeStats stats);
+
+  /**
+   * Stops publishing.
+   */
+  void close();
+
+}
@@ -0,0 +1,165 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import net.ess.ebase.data.IdentitySet;
+import net.ess.ebase.typeSystem.facets.Attribute;
+import net.ess.ebase.typeSystem.facets.Facet;
+
+/****************************************************************************
+ * <code>PersistencePlan</code> is the immutable, precomputed persistence schema of a structured
+ * type: its persistable facets (in attribute order), the structured types its attributes
+ * reference, and, for entity types, its primary id facet.
+ * <p>
+ * A type computes its plan when wired, so that storing and fetching instances doesn't re-derive
+ * the schema on every call. Each plan is stamped with the type system's facet epoch (see
+ * <code>Type.facetEpoch()</code>), read before the schema is, so a plan computed before any type
+ * discovers a facet (including the inherited facets of subtypes' plans) is recomputed on its next
+ * use, without discovery having to find and discard the plans it affects.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class PersistencePlan
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The type planned. */
+  public final Type<?> type;
+
+  /** The persistable facets, in attribute order. */
+  public final Facet[] facets;
+
+  /** The persistable facets, as an unmodifiable list. */
+  public final List<Facet> facetList;
+
+  /** The structured types referenced via any attribute; shared, so frozen against updates. */
+  public final IdentitySet<Type> referencedTypes;
+
+  /** The structured types referenced via persistable attributes; shared, so frozen likewise. */
+  public final IdentitySet<Type> persistableReferencedTypes;
+
+  /** The primary id facet if type is an entity type, else null. */
+  public final Facet primaryIdFacet;
+
+  /** The facet epoch the plan was computed in. */
+  public final int epoch;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  PersistencePlan(Type<?> type) {
+    this.epoch = Type.facetEpoch();
+    this.type = type;
+    ArrayList<Facet> pFacets = new ArrayList<>();
+    FrozenIdentitySet<Type> referenced = new FrozenIdentitySet<>();
+    FrozenIdentitySet<Type> pReferenced = new FrozenIdentitySet<>();
+    for(Attribute attribute : type.attributes()) {
+      boolean persistable = attribute.isPersistable();
+      if(persistable)
+        pFacets.add(attribute);
+      Type valueType = attribute.out();
+      if(valueType.isStructured()) {
+        referenced.add(valueType);
+        if(persistable)
+          pReferenced.add(valueType);
+      }
+    }
+    this.facets = pFacets.toArray(new Facet[pFacets.size()]);
+    this.facetList = Collections.unmodifiableList(Arrays.asList(facets));
+    this.referencedTypes = referenced.freeze();
+    this.persistableReferencedTypes = pReferenced.freeze();
+    this.primaryIdFacet = type.isEntityType() ? type.primaryIdFacet() : null;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns whether the plan was computed since the last facet discovery.
+   */
+  public boolean isCurrent() {
+    return epoch == Type.facetEpoch();
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>FrozenIdentitySet</code> is an <code>IdentitySet</code> that rejects updates once
+   * frozen, so a plan's sets can be shared with callers of the <code>IdentitySet</code>-typed
+   * accessors.
+   ****************************************************************************/
+  private static final class FrozenIdentitySet<E>
+    extends IdentitySet<E>
+  {
+    private boolean frozen;
+
+    FrozenIdentitySet<E> freeze() {
+      frozen = true;
+      return this;
+    }
+
+    private void checkThawed() {
+      if(frozen)
+        throw new UnsupportedOperationException("a persistence plan's sets are read-only");
+    }
+
+    @Override
+    public boolean add(E e) {
+      checkThawed();
+      return super.add(e);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+      checkThawed();
+      return super.addAll(c);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      checkThawed();
+      return super.remove(o);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+      checkThawed();
+      return super.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+      checkThawed();
+      return super.retainAll(c);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+      checkThawed();
+      return super.removeIf(filter);
+    }
+
+    @Override
+    public void clear() {
+      checkThawed();
+      super.clear();
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.facets.Facet;
+import net.ess.ebase.typeSystem.structure.EntityType;
+
+/****************************************************************************
+ * <code>PrimaryIdAccessor</code> reads an entity's onboard id through a pre-bound
+ * <code>MethodHandle</code> on the id facet's backing field, rather than by applying the facet
+ * reflectively. Ids are always written through the facet, so its update semantics are kept.
+ * <p>
+ * Since the backing field depends on the entity's class, accessors are cached per class (in a
+ * <code>ClassValue</code>): once per id facet, and the primary id's accessor once per
+ * <code>EntityType</code>. Note the cached accessors refer to facets and types, which in turn refer
+ * to the class, so while the cache lives, an entity class whose accessors are cached isn't
+ * unloaded; entity classes are expected to live as long as the type system anyway. Metas also keep
+ * their own accessor, so their hot paths skip the shared cache altogether. Cached accessors are stamped with the type system's facet epoch (see
+ * <code>Type.facetEpoch()</code>), so once any type discovers a facet, they're re-resolved on next
+ * use.
+ * <p>
+ * When the backing field is a primitive <code>long</code>, the accessor reads and compares it
+ * unboxed, boxing only when a key's actually derived from it. Facets that aren't backed by a field
+ * of the entity's class (e.g. computed facets) are read through the facet as before.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class PrimaryIdAccessor
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The accessor of types having no onboard id: ids are meta keys, or unresolved. */
+  public static final PrimaryIdAccessor NONE = new PrimaryIdAccessor(null, null, false, 0);
+
+  /* The generic shapes handles are adapted to. */
+  private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+  private static final MethodType LONG_GETTER = MethodType.methodType(long.class, Object.class);
+
+  /* Each entity class's accessors. */
+  private static final ClassValue<ClassAccessors> byClass = new ClassValue<ClassAccessors>() {
+    @Override
+    protected ClassAccessors computeValue(Class<?> c) {
+      return new ClassAccessors();
+    }
+  };
+
+  /** The id facet. */
+  public final Facet facet;
+
+  /* The field's getter, adapted to (Object)Object; null if the id's read through the facet. */
+  private final MethodHandle getter;
+
+  /* Whether the field's a long, and its getter, unboxed. */
+  private final boolean isLong;
+
+  private final MethodHandle longGetter;
+
+  /* The epoch this accessor was resolved in. */
+  private final int resolvedEpoch;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private PrimaryIdAccessor(Facet facet, MethodHandle getter, boolean isLong, int resolvedEpoch) {
+    this.facet = facet;
+    this.getter = getter == null ? null : getter.asType(GETTER);
+    this.isLong = isLong;
+    this.longGetter = isLong ? getter.asType(LONG_GETTER) : null;
+    this.resolvedEpoch = resolvedEpoch;
+  }
+
+  /**
+   * Returns the accessor of <code>type</code>'s primary id, for entities of class
+   * <code>valueClass</code>. Returns {@link #NONE}, uncached, while the type's primary id facet is
+   * unresolved.
+   */
+  public static PrimaryIdAccessor forType(EntityType<?> type, Class<?> valueClass) {
+    ConcurrentHashMap<EntityType<?>, PrimaryIdAccessor> byType = byClass.get(valueClass).byType;
+    PrimaryIdAccessor a = byType.get(type);
+    if(a != null && a.isCurrent())
+      return a;
+    Facet f = type.primaryIdFacet();
+    if(f == null)
+      return NONE;
+    a = forFacet(f, valueClass);
+    byType.put(type, a);
+    return a;
+  }
+
+  /**
+   * Returns the accessor of id facet <code>facet</code>, for entities of class
+   * <code>valueClass</code>.
+   */
+  public static PrimaryIdAccessor forFacet(Facet facet, Class<?> valueClass) {
+    if(facet == null || facet.isMetaKeyFacet())
+      return NONE;
+    ConcurrentHashMap<Facet, PrimaryIdAccessor> byFacet = byClass.get(valueClass).byFacet;
+    PrimaryIdAccessor a = byFacet.get(facet);
+    if(a != null && a.isCurrent())
+      return a;
+    a = resolve(facet, valueClass);
+    byFacet.put(facet, a);
+    return a;
+  }
+
+  /*
+   * Binds a getter on the field backing facet, if there is one.
+   */
+  private static PrimaryIdAccessor resolve(Facet facet, Class<?> valueClass) {
+    int e = Type.facetEpoch();
+    Field field = fieldNamed(valueClass, facet.baseName());
+    if(field == null)
+      return new PrimaryIdAccessor(facet, null, false, e);
+    try {
+      MethodHandles.Lookup lookup =
+          MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+      MethodHandle getter = lookup.unreflectGetter(field);
+      return new PrimaryIdAccessor(facet, getter, field.getType() == long.class, e);
+    } catch(IllegalAccessException x) {
+      // the module doesn't open the class; fall back to the facet
+      return new PrimaryIdAccessor(facet, null, false, e);
+    }
+  }
+
+  /*
+   * Returns the instance field of c or its superclasses named name, or null.
+   */
+  private static Field fieldNamed(Class<?> c, String name) {
+    for(; c != null && c != Object.class; c = c.getSuperclass()) {
+      for(Field f : c.getDeclaredFields()) {
+        if(f.getName().equals(name) && !Modifier.isStatic(f.getModifiers()))
+          return f;
+      }
+    }
+    return null;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /*
+   * Returns whether this accessor was resolved since the last facet discovery.
+   */
+  private boolean isCurrent() {
+    return resolvedEpoch == Type.facetEpoch();
+  }
+
+  /**
+   * Returns whether this accessor is still the one {@link #forFacet} returns for
+   * <code>idFacet</code>, for the class it was resolved for: it's {@link #NONE} and
+   * <code>idFacet</code> has no onboard id, or it's <code>idFacet</code>'s and resolved since the
+   * last facet discovery.
+   */
+  public boolean isCurrentFor(Facet idFacet) {
+    if(this == NONE)
+      return idFacet == null || idFacet.isMetaKeyFacet();
+    return facet == idFacet && isCurrent();
+  }
+
+  /**
+   * Returns whether ids are held onboard entities, i.e. this isn't {@link #NONE}.
+   */
+  public boolean isOnboard() {
+    return facet != null;
+  }
+
+  /**
+   * Returns whether the id's a primitive <code>long</code>.
+   */
+  public boolean isLong() {
+    return isLong;
+  }
+
+  /**
+   * Returns <code>value</code>'s id.
+   */
+  public Object get(Object value) {
+    if(getter == null)
+      return facet != null ? facet.apply(value) : null;
+    try {
+      return (Object) getter.invokeExact(value);
+    } catch(Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Returns <code>value</code>'s id, which must be a <code>long</code>, unboxed.
+   */
+  public long getLong(Object value) {
+    try {
+      return (long) longGetter.invokeExact(value);
+    } catch(Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Sets <code>value</code>'s id to <code>id</code>, through the facet.
+   */
+  public void set(Object value, Object id) {
+    if(facet != null)
+      facet.put(value, id);
+  }
+
+  /**
+   * Returns whether <code>value</code>'s id is <code>id</code>: by value for long ids, else by
+   * identity.
+   */
+  public boolean holds(Object value, Object id) {
+    if(isLong && id instanceof Long)
+      return getLong(value) == ((Long) id).longValue();
+    return get(value) == id;
+  }
+
+  /**
+   * Returns whether the id facet can hold <code>id</code>.
+   */
+  public boolean canHold(Object id) {
+    if(isLong)
+      return id instanceof Long;
+    return facet != null && facet.canReturn(id);
+  }
+
+  private static RuntimeException rethrow(Throwable e) {
+    if(e instanceof RuntimeException)
+      return (RuntimeException) e;
+    if(e instanceof Error)
+      throw (Error) e;
+    return new RuntimeException(e);
+  }
+
+  @Override
+  public String toString() {
+    return "PrimaryIdAccessor(" + (facet != null ? facet.baseName() : "none")
+        + (getter != null ? isLong ? ", long field" : ", field" : "") + ")";
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>ClassAccessors</code> holds an entity class's accessors, by id facet, and by entity
+   * type for primary ids.
+   ****************************************************************************/
+  private static final class ClassAccessors
+  {
+    final ConcurrentHashMap<Facet, PrimaryIdAccessor> byFacet = new ConcurrentHashMap<>();
+
+    final ConcurrentHashMap<EntityType<?>, PrimaryIdAccessor> byType = new ConcurrentHashMap<>();
+  }
+
+}
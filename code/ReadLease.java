@@ -0,0 +1,118 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+/****************************************************************************
+ * <code>ReadLease</code> is a time-bounded permission for a replica to serve reads from its
+ * local state without checking with its primary.
+ * <p>
+ * Leases are immutable; granting, renewal and revocation replace the meta's lease rather than
+ * mutating it. The same class records both sides of the protocol:
+ * <ul>
+ * <li>on a primary, a <i>grant</i>, recording the latest epoch handed out and the time up to
+ * which some replica may still be holding it;</li>
+ * <li>on a replica, a <i>holding</i>, whose expiry is measured from when the replica sent its
+ * request, so it never outlives the primary's grant regardless of network delay.</li>
+ * </ul>
+ * Each revocation closes its epoch, and the primary's next grant opens a new one. A replica
+ * remembers the last epoch revoked on it, so a grant reply that loses the race with its own
+ * revocation is discarded rather than installed.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class ReadLease
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The lease's epoch. */
+  public final long epoch;
+
+  /** The lease's duration, in nanos. */
+  public final long durationNanos;
+
+  /** The <code>System.nanoTime()</code> at which the lease expires. */
+  public final long expiresAt;
+
+  /** Whether this is a primary's grant, rather than a replica's holding. */
+  public final boolean isGrant;
+
+  /** Whether <code>epoch</code> has been revoked. */
+  public final boolean isRevoked;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private ReadLease(
+      long epoch, long durationNanos, long expiresAt, boolean isGrant, boolean isRevoked) {
+    this.epoch = epoch;
+    this.durationNanos = durationNanos;
+    this.expiresAt = expiresAt;
+    this.isGrant = isGrant;
+    this.isRevoked = isRevoked;
+  }
+
+  /**
+   * Returns a replica's not-yet-acquired holding of <code>durationNanos</code>, which puts the
+   * replica in lease mode without letting it serve reads until the first grant arrives.
+   */
+  public static ReadLease unacquired(long durationNanos) {
+    return new ReadLease(0, durationNanos, System.nanoTime(), false, false);
+  }
+
+  /**
+   * Returns a primary's grant of <code>epoch</code>, outstanding until <code>expiresAt</code>.
+   */
+  public static ReadLease grant(long epoch, long durationNanos, long expiresAt) {
+    return new ReadLease(epoch, durationNanos, expiresAt, true, false);
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns whether the lease is still in force.
+   */
+  public boolean isValid() {
+    return !isRevoked && System.nanoTime() - expiresAt < 0;
+  }
+
+  /**
+   * Returns whether a holding granted under <code>grantedEpoch</code> may replace this one.
+   */
+  public boolean admits(long grantedEpoch) {
+    return !isRevoked || grantedEpoch > epoch;
+  }
+
+  /**
+   * Returns the holding of <code>grantedEpoch</code> resulting from a request sent at
+   * <code>requestedAt</code>.
+   */
+  public ReadLease renewed(long grantedEpoch, long requestedAt) {
+    return new ReadLease(grantedEpoch, durationNanos, requestedAt + durationNanos, false, false);
+  }
+
+  /**
+   * Returns this lease with <code>revokedEpoch</code> revoked, keeping its duration for the next
+   * grant or renewal.
+   */
+  public ReadLease revoked(long revokedEpoch) {
+    return new ReadLease(
+        Math.max(epoch, revokedEpoch), durationNanos, System.nanoTime(), isGrant, true);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s#%d(%s)", isGrant ? "grant" : "lease", epoch,
+        isRevoked ? "revoked" : isValid() ? "valid" : "expired");
+  }
+
+}
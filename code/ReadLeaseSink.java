@@ -0,0 +1,70 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.ess.ebase.events.Event;
+import net.ess.ebase.events.EventChannel;
+import net.ess.ebase.transport.comm.entity.EntityTunnelMultiplexer;
+
+/****************************************************************************
+ * <code>ReadLeaseSink</code> is the event sink a primary connects to its own event channel on
+ * behalf of a leased replica, through which the primary's <code>LeaseRevokedEvent</code>s are
+ * forwarded to the replica residing at the sink's holder. All other events are ignored.
+ * <p>
+ * The sink is built on the primary's side from the holder's residence, which is all the replica
+ * sends. The primary also revokes through {@link #revoke(long)} directly, awaiting the holder's
+ * acknowledgement before committing the update that revoked the lease; if no tunnel to the
+ * holder is bound, there's nothing to await but the holder's lease lapsing on expiry.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class ReadLeaseSink
+  extends EventChannel<Event>
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The primary whose revocations are forwarded. */
+  public final MetaEntity primary;
+
+  /** The residence of the replica holding the lease. */
+  public final EntityResidence holder;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public ReadLeaseSink(MetaEntity primary, EntityResidence holder) {
+    this.primary = primary;
+    this.holder = holder;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Override
+  public void accept(Event event) {
+    if(event instanceof LeaseRevokedEvent)
+      revoke(((LeaseRevokedEvent) event).epoch);
+  }
+
+  /**
+   * Tells the holder that leases of <code>epoch</code> and earlier are revoked, returning the
+   * future of its acknowledgement, else null if no tunnel to the holder is bound.
+   */
+  public CompletableFuture<Object> revoke(long epoch) {
+    EntityTunnelMultiplexer m = EntityTunnelMultiplexer.forResidence(holder);
+    if(m == null || m.isClosed())
+      return null;
+    return m.send(primary, "leaseRevoked", epoch);
+  }
+
+}
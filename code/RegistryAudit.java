@@ -0,0 +1,303 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/****************************************************************************
+ * <code>RegistryAudit</code> audits many types at once, e.g. the whole type registry after a
+ * deploy, by partitioning them across a <code>ForkJoinPool</code> and running each type's
+ * {@link TypeAudit}.
+ * <p>
+ * Failures are collected as {@link Finding}s in a concurrent {@link Report}, rather than aborting
+ * the audit. The audit stops early once the number of findings reaches the error budget; types not
+ * yet audited by then are left unaudited.
+ * <p>
+ * Types note changes that could invalidate an audit (wiring, inheritance, facet discovery,
+ * parameter rebinding) by calling {@link #touched}. {@link #auditTouched} re-audits just the
+ * types touched since they were last audited. Types that fail, or are skipped when the budget's
+ * exhausted, stay touched, so they're re-audited next time. Touched types are held weakly, and
+ * by identity, so noting a touch never keeps a type alive, nor depends on its mutable hash code.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class RegistryAudit
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Default maximum number of findings before an audit stops. */
+  public static final int DEFAULT_ERROR_BUDGET = 100;
+
+  /* Number of types below which a partition's audited serially. */
+  private static final int SERIAL_THRESHOLD = 64;
+
+  /* Types touched since they were last audited. */
+  private static final Set<TouchedRef> touchedTypes = ConcurrentHashMap.newKeySet();
+
+  /* Receives the references of collected touched types. */
+  private static final ReferenceQueue<Type> collected = new ReferenceQueue<>();
+
+  private final ForkJoinPool pool;
+
+  private final int errorBudget;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public RegistryAudit() {
+    this(ForkJoinPool.commonPool(), DEFAULT_ERROR_BUDGET);
+  }
+
+  public RegistryAudit(ForkJoinPool pool, int errorBudget) {
+    this.pool = pool;
+    this.errorBudget = errorBudget;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Notes that <code>type</code> has changed since it was last audited.
+   */
+  public static void touched(Type type) {
+    expungeCollected();
+    touchedTypes.add(new TouchedRef(type, collected));
+  }
+
+  /**
+   * Returns the number of types touched since they were last audited.
+   */
+  public static int touchedCount() {
+    expungeCollected();
+    return touchedTypes.size();
+  }
+
+  /**
+   * Audits <code>types</code>, returning the report.
+   */
+  public Report audit(Collection<? extends Type> types) {
+    Type[] a = types.toArray(new Type[0]);
+    for(Type t : a)
+      touched(t);
+    return run(a);
+  }
+
+  /**
+   * Audits the types touched since they were last audited, returning the report.
+   */
+  public Report auditTouched() {
+    expungeCollected();
+    List<Type> types = new ArrayList<>(touchedTypes.size());
+    for(TouchedRef r : touchedTypes) {
+      Type t = r.get();
+      if(t != null)
+        types.add(t);
+    }
+    return run(types.toArray(new Type[types.size()]));
+  }
+
+  private Report run(Type[] types) {
+    Report report = new Report(errorBudget);
+    long start = System.nanoTime();
+    pool.invoke(new Partition(types, 0, types.length, report));
+    report.nanos = System.nanoTime() - start;
+    return report;
+  }
+
+  /*
+   * Audits type, recording any failure in report. The type's untouched before it's audited, so a
+   * touch during the audit isn't lost.
+   */
+  private static void auditOne(Type type, Report report) {
+    touchedTypes.remove(new TouchedRef(type, null));
+    try {
+      type.audit();
+      report.audited.increment();
+    } catch(RuntimeException | AssertionError e) {
+      touched(type);
+      report.add(new Finding(type, e));
+    }
+  }
+
+  /*
+   * Removes the references of touched types that have been collected.
+   */
+  private static void expungeCollected() {
+    for(Reference<? extends Type> r; (r = collected.poll()) != null;)
+      touchedTypes.remove(r);
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>TouchedRef</code> weakly references a touched type, comparing by the type's identity.
+   * A collected reference equals only itself, so it can still be expunged.
+   ****************************************************************************/
+  private static final class TouchedRef
+    extends WeakReference<Type>
+  {
+    private final int hash;
+
+    TouchedRef(Type type, ReferenceQueue<Type> queue) {
+      super(type, queue);
+      hash = System.identityHashCode(type);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if(o == this)
+        return true;
+      if(!(o instanceof TouchedRef))
+        return false;
+      Type t = get();
+      return t != null && t == ((TouchedRef) o).get();
+    }
+  }
+
+  /****************************************************************************
+   * <code>Partition</code> audits a range of types, splitting it in half until it's small
+   * enough to audit serially.
+   ****************************************************************************/
+  private static class Partition
+    extends RecursiveAction
+  {
+    private final Type[] types;
+
+    private final int from, to;
+
+    private final Report report;
+
+    Partition(Type[] types, int from, int to, Report report) {
+      this.types = types;
+      this.from = from;
+      this.to = to;
+      this.report = report;
+    }
+
+    @Override
+    protected void compute() {
+      if(to - from <= SERIAL_THRESHOLD) {
+        for(int i = from; i < to && !report.isExhausted(); i++)
+          auditOne(types[i], report);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new Partition(types, from, mid, report), new Partition(types, mid, to, report));
+    }
+  }
+
+  /****************************************************************************
+   * <code>Finding</code> is a type's audit failure.
+   ****************************************************************************/
+  public static class Finding
+  {
+    public final Type type;
+
+    public final Throwable failure;
+
+    Finding(Type type, Throwable failure) {
+      this.type = type;
+      this.failure = failure;
+    }
+
+    @Override
+    public String toString() {
+      return type + ": " + failure.getMessage();
+    }
+  }
+
+  /****************************************************************************
+   * <code>Report</code> collects an audit's findings, concurrently.
+   ****************************************************************************/
+  public static class Report
+  {
+    /** Maximum number of findings before the audit stops. */
+    public final int errorBudget;
+
+    private final ConcurrentLinkedQueue<Finding> findings = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger findingCount = new AtomicInteger();
+
+    private final LongAdder audited = new LongAdder();
+
+    private long nanos;
+
+    Report(int errorBudget) {
+      this.errorBudget = errorBudget;
+    }
+
+    void add(Finding f) {
+      if(findingCount.getAndIncrement() < errorBudget)
+        findings.add(f);
+    }
+
+    /**
+     * Returns whether the error budget's exhausted, stopping the audit.
+     */
+    public boolean isExhausted() {
+      return findingCount.get() >= errorBudget;
+    }
+
+    /**
+     * Returns whether every type audited cleanly.
+     */
+    public boolean isClean() {
+      return findingCount.get() == 0;
+    }
+
+    /**
+     * Returns the findings, at most the error budget's worth.
+     */
+    public List<Finding> findings() {
+      return Collections.unmodifiableList(new ArrayList<>(findings));
+    }
+
+    /**
+     * Returns the number of types that audited cleanly.
+     */
+    public long auditedCount() {
+      return audited.sum();
+    }
+
+    /**
+     * Returns the audit's elapsed time, in nanoseconds.
+     */
+    public long nanos() {
+      return nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("RegistryAudit.Report(audited=%d, findings=%d%s, %dms)", auditedCount(),
+          findingCount.get(), isExhausted() ? ", budget exhausted" : "", nanos / 1_000_000);
+    }
+  }
+
+}
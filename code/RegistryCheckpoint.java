@@ -0,0 +1,497 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.structure.EntityType;
+
+/****************************************************************************
+ * <code>RegistryCheckpoint</code> writes the entity registry to a memory-mapped checkpoint file,
+ * and rebuilds it from one on restart, so that a restarting node needn't re-register its entities
+ * one by one before serving traffic.
+ * <p>
+ * Each registered entity is checkpointed as a fixed-layout record of its type, residence,
+ * shortcut, and decoration mask, followed by its key. Types are named by their class, plus, for
+ * subtypes sharing their base type's class, their type address. Type names, residence names and
+ * key class names are interned in a string table at the end of the file, and records refer to
+ * them by index. Long, int, and string keys are stored directly, and others as their type
+ * translator's encoding.
+ * <p>
+ * Restoring maps the file read-only and rebuilds the registry as storage proxies, whose state is
+ * fetched when they're first accessed. The registry's shortcut allocator is first raised past the
+ * largest checkpointed shortcut, recorded in the header, so no restored shortcut's reissued.
+ * Proxies are then materialized and registered in batches per type and residence, via
+ * {@link EntityBatchFactory} and the registry's batch insertion, preserving their shortcuts. Only
+ * decorations that need no decoration object are restored from the masks.
+ * <p>
+ * Checkpoints are written to a temporary file that then replaces the target, so a crash mid-write
+ * leaves the previous checkpoint intact.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class RegistryCheckpoint
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* The file's magic number ("EBRC") and format version. */
+  private static final int MAGIC = 0x45425243;
+
+  private static final int VERSION = 2;
+
+  /* Header: magic, version, creation time, record count, max shortcut, string table offset. */
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 8;
+
+  /* Key kinds. */
+  private static final byte KEY_LONG = 1, KEY_INT = 2, KEY_STRING = 3, KEY_OTHER = 4;
+
+  /* Bytes mapped at a time while writing. */
+  private static final int WRITE_CHUNK = 8 << 20;
+
+  /* Number of proxies materialized and registered per batch when restoring. */
+  private static final int RESTORE_BATCH = 1024;
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Checkpointing
+  // ---------------------------
+  /**
+   * Checkpoints the registered metas among <code>metas</code> to <code>file</code>, returning
+   * the number checkpointed. Metas lacking a type or key are skipped.
+   */
+  public static int checkpoint(Path file, Iterable<? extends MetaEntity> metas) {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    StringTable strings = new StringTable();
+    int count = 0, maxShortcut = 0;
+    try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedWriter out = new MappedWriter(channel, HEADER_SIZE);
+      for(MetaEntity meta : metas) {
+        if(!meta.isRegistered() || meta.entityType == null || meta.key == null)
+          continue;
+        out.ensure(4 + 4 + 4 + 8);
+        out.buffer.putInt(strings.indexOf(typeName(meta.entityType)));
+        out.buffer.putInt(meta.residence != null ? strings.indexOf(meta.residence.toString()) : -1);
+        out.buffer.putInt(meta.shortcut);
+        out.buffer.putLong(meta.decorationMask);
+        writeKey(out, strings, meta.key);
+        maxShortcut = Math.max(maxShortcut, meta.shortcut);
+        count++;
+      }
+
+      // append the string table, then fill in the header
+      long stringTableOffset = out.position();
+      out.ensure(4);
+      out.buffer.putInt(strings.list.size());
+      for(String s : strings.list)
+        writeString(out, s);
+      long end = out.position();
+      out.finish();
+      channel.truncate(end);
+
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(count)
+          .putInt(maxShortcut).putLong(stringTableOffset);
+      header.force();
+    } catch(IOException e) {
+      throw new AbortException("unable to checkpoint registry to %s: %s", temp, e);
+    }
+    try {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch(IOException e) {
+      throw new AbortException("unable to replace checkpoint %s: %s", file, e);
+    }
+    return count;
+  }
+
+  private static void writeKey(MappedWriter out, StringTable strings, Object key) {
+    if(key instanceof Long) {
+      out.ensure(1 + 8);
+      out.buffer.put(KEY_LONG).putLong((Long) key);
+    } else if(key instanceof Integer) {
+      out.ensure(1 + 4);
+      out.buffer.put(KEY_INT).putInt((Integer) key);
+    } else if(key instanceof String) {
+      out.ensure(1);
+      out.buffer.put(KEY_STRING);
+      writeString(out, (String) key);
+    } else {
+      Type<?> keyType = Type.forClass(key.getClass());
+      out.ensure(1 + 4);
+      out.buffer.put(KEY_OTHER).putInt(strings.indexOf(key.getClass().getName()));
+      writeString(out, keyType.translator().encode(key));
+    }
+  }
+
+  /*
+   * Returns the name type's checkpointed under: its class's name, followed, for a subtype, by a
+   * space and its type address.
+   */
+  private static String typeName(Type<?> type) {
+    String className = type.iClass.getName();
+    return type.isSubtype() ? className + ' ' + type.primaryId() : className;
+  }
+
+  private static void writeString(MappedWriter out, String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.ensure(4 + bytes.length);
+    out.buffer.putInt(bytes.length).put(bytes);
+  }
+
+  // ---------------------------
+  // Restoration
+  // ---------------------------
+  /**
+   * Rebuilds the registry from the checkpoint in <code>file</code>, with residences resolved to
+   * the local site.
+   */
+  public static Restoration restore(Path file) {
+    return restore(file, name -> null);
+  }
+
+  /**
+   * Rebuilds the registry from the checkpoint in <code>file</code>, resolving checkpointed
+   * residence names by <code>residences</code>; a null resolution means the local site.
+   */
+  public static Restoration restore(Path file, Function<String, EntityResidence> residences) {
+    Restoration result = new Restoration();
+    long start = System.nanoTime();
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if(size > Integer.MAX_VALUE)
+        throw new AbortException("checkpoint %s is too large to map: %d bytes", file, size);
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if(size < HEADER_SIZE || in.getInt() != MAGIC)
+        throw new AbortException("not a registry checkpoint: %s", file);
+      int version = in.getInt();
+      if(version != VERSION)
+        throw new AbortException("unsupported checkpoint version %d in %s", version, file);
+      in.getLong(); // creation time
+      int count = in.getInt();
+      int maxShortcut = in.getInt();
+      int stringTableOffset = (int) in.getLong();
+
+      // before registering any proxy, keep the allocator from reissuing restored shortcuts
+      EntityRegistry.raiseUniqueIntFloor(maxShortcut);
+
+      // read the string table, then the records
+      String[] strings = readStrings(in.duplicate().position(stringTableOffset));
+      Restorer restorer = new Restorer(strings, residences, result);
+      for(int i = 0; i < count; i++) {
+        int typeIndex = in.getInt();
+        int residenceIndex = in.getInt();
+        int shortcut = in.getInt();
+        long decorationMask = in.getLong();
+        Object key = readKey(in, strings);
+        restorer.add(typeIndex, residenceIndex, shortcut, decorationMask, key);
+      }
+      restorer.flushAll();
+    } catch(IOException e) {
+      throw new AbortException("unable to restore registry from %s: %s", file, e);
+    }
+    result.nanos = System.nanoTime() - start;
+    return result;
+  }
+
+  private static String[] readStrings(ByteBuffer in) {
+    String[] strings = new String[in.getInt()];
+    for(int i = 0; i < strings.length; i++)
+      strings[i] = readString(in);
+    return strings;
+  }
+
+  private static String readString(ByteBuffer in) {
+    byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static Object readKey(ByteBuffer in, String[] strings) {
+    byte kind = in.get();
+    switch(kind) {
+      case KEY_LONG:
+        return in.getLong();
+      case KEY_INT:
+        return in.getInt();
+      case KEY_STRING:
+        return readString(in);
+      case KEY_OTHER:
+        Class<?> keyClass = classNamed(strings[in.getInt()]);
+        String encoding = readString(in);
+        if(keyClass == null)
+          return null;
+        Type<?> keyType = Type.forClass(keyClass);
+        return keyType.translator().decode(encoding, keyType);
+      default:
+        throw new AbortException("corrupt checkpoint: unknown key kind %d", kind);
+    }
+  }
+
+  private static Class<?> classNamed(String name) {
+    try {
+      ClassLoader loader = Thread.currentThread().getContextClassLoader();
+      return Class.forName(name, false,
+          loader != null ? loader : RegistryCheckpoint.class.getClassLoader());
+    } catch(ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Restoration</code> reports a restore's outcome.
+   ****************************************************************************/
+  public static class Restoration
+  {
+    /** Number of entities restored. */
+    public int restored;
+
+    /** Number of records skipped, their types or key classes being unknown, or types abstract. */
+    public int skipped;
+
+    /** Elapsed time, in nanoseconds. */
+    public long nanos;
+
+    @Override
+    public String toString() {
+      return String.format("RegistryCheckpoint.Restoration(restored=%d, skipped=%d, %dms)",
+          restored, skipped, nanos / 1_000_000);
+    }
+  }
+
+  /****************************************************************************
+   * <code>StringTable</code> interns the checkpoint's strings.
+   ****************************************************************************/
+  static class StringTable
+  {
+    final List<String> list = new ArrayList<>();
+
+    final Map<String, Integer> indices = new HashMap<>();
+
+    int indexOf(String s) {
+      Integer i = indices.get(s);
+      if(i == null) {
+        indices.put(s, i = list.size());
+        list.add(s);
+      }
+      return i;
+    }
+  }
+
+  /****************************************************************************
+   * <code>MappedWriter</code> writes sequentially through a window mapped onto a file channel,
+   * remapping further along the file as the window fills.
+   ****************************************************************************/
+  static class MappedWriter
+  {
+    private final FileChannel channel;
+
+    /* The window, and its offset in the file. */
+    MappedByteBuffer buffer;
+
+    private long windowOffset;
+
+    MappedWriter(FileChannel channel, long start) throws IOException {
+      this.channel = channel;
+      map(start, WRITE_CHUNK);
+    }
+
+    /* Returns the file position of the next write. */
+    long position() {
+      return windowOffset + buffer.position();
+    }
+
+    /* Ensures the window has room for n more bytes. */
+    void ensure(int n) {
+      if(buffer.remaining() >= n)
+        return;
+      try {
+        buffer.force();
+        map(position(), Math.max(WRITE_CHUNK, n));
+      } catch(IOException e) {
+        throw new AbortException("unable to extend checkpoint: %s", e);
+      }
+    }
+
+    void finish() {
+      buffer.force();
+    }
+
+    private void map(long offset, int size) throws IOException {
+      windowOffset = offset;
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+    }
+  }
+
+  /****************************************************************************
+   * <code>Restorer</code> accumulates restored records into batches per type and residence, and
+   * materializes and registers each batch when it fills.
+   ****************************************************************************/
+  static class Restorer
+  {
+    private final String[] strings;
+
+    private final Function<String, EntityResidence> residences;
+
+    private final Restoration result;
+
+    /* Batch factories by type index; null values mark unrestorable types. */
+    private final Map<Integer, EntityBatchFactory<?>> factories = new HashMap<>();
+
+    /* Resolved residences by index. */
+    private final Map<Integer, EntityResidence> homes = new HashMap<>();
+
+    /* Pending batches, by type and residence index. */
+    private final Map<Long, Batch> batches = new HashMap<>();
+
+    Restorer(String[] strings, Function<String, EntityResidence> residences, Restoration result) {
+      this.strings = strings;
+      this.residences = residences;
+      this.result = result;
+    }
+
+    void add(int typeIndex, int residenceIndex, int shortcut, long decorationMask, Object key) {
+      EntityBatchFactory<?> factory = factoryFor(typeIndex);
+      if(factory == null || key == null) {
+        result.skipped++;
+        return;
+      }
+      long batchKey = ((long) typeIndex << 32) | (residenceIndex & 0xFFFFFFFFL);
+      Batch batch = batches.get(batchKey);
+      if(batch == null)
+        batches.put(batchKey, batch = new Batch(factory, homeFor(residenceIndex)));
+      batch.add(key, shortcut, decorationMask);
+      if(batch.size == RESTORE_BATCH)
+        result.restored += batch.flush();
+    }
+
+    void flushAll() {
+      for(Batch batch : batches.values())
+        result.restored += batch.flush();
+    }
+
+    private EntityBatchFactory<?> factoryFor(int typeIndex) {
+      if(factories.containsKey(typeIndex))
+        return factories.get(typeIndex);
+      EntityBatchFactory<?> factory = null;
+      EntityType<?> type = typeNamed(strings[typeIndex]);
+      try {
+        if(type != null)
+          factory = new EntityBatchFactory(type, null);
+      } catch(AbortException e) {
+        // abstract type; its records are skipped
+      }
+      factories.put(typeIndex, factory);
+      return factory;
+    }
+
+    /*
+     * Returns the entity type checkpointed as name (see typeName()), or null if it's unknown.
+     */
+    private static EntityType<?> typeNamed(String name) {
+      int space = name.indexOf(' ');
+      Class<?> c = classNamed(space < 0 ? name : name.substring(0, space));
+      if(c == null)
+        return null;
+      Type<?> type = Type.forClass(c);
+      if(space >= 0)
+        type = subtypeAddressed(type, c, name.substring(space + 1));
+      return type != null ? type.asEntityType() : null;
+    }
+
+    /*
+     * Returns the subtype of t having class c and type address address, or null.
+     */
+    private static Type<?> subtypeAddressed(Type<?> t, Class<?> c, String address) {
+      for(Type<?> s : t.localSubtypes()) {
+        if(s.iClass != c)
+          continue;
+        if(address.equals(String.valueOf(s.primaryId())))
+          return s;
+        Type<?> found = subtypeAddressed(s, c, address);
+        if(found != null)
+          return found;
+      }
+      return null;
+    }
+
+    private EntityResidence homeFor(int residenceIndex) {
+      if(residenceIndex < 0)
+        return null;
+      return homes.computeIfAbsent(residenceIndex, i -> residences.apply(strings[i]));
+    }
+  }
+
+  /****************************************************************************
+   * <code>Batch</code> is a pending batch of restored records of one type and residence.
+   ****************************************************************************/
+  static class Batch
+  {
+    final EntityBatchFactory<?> factory;
+
+    final EntityResidence home;
+
+    final Object[] keys = new Object[RESTORE_BATCH];
+
+    final int[] shortcuts = new int[RESTORE_BATCH];
+
+    final long[] masks = new long[RESTORE_BATCH];
+
+    int size;
+
+    Batch(EntityBatchFactory<?> factory, EntityResidence home) {
+      this.factory = factory;
+      this.home = home;
+    }
+
+    void add(Object key, int shortcut, long decorationMask) {
+      keys[size] = key;
+      shortcuts[size] = shortcut;
+      masks[size] = decorationMask;
+      size++;
+    }
+
+    /* Materializes and registers the batch's proxies, returning how many. */
+    int flush() {
+      int n = size;
+      if(n == 0)
+        return 0;
+      MetaEntity[] metas = factory.fill(keys, n, true);
+      for(int i = 0; i < n; i++)
+        metas[i].restoreCheckpointed(shortcuts[i], home, masks[i]);
+      MetaEntity.registerAll(metas, n);
+      Arrays.fill(keys, 0, n, null);
+      size = 0;
+      return n;
+    }
+  }
+
+}
@@ -0,0 +1,613 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.events;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.ess.ebase.system.stats.FlightRecorderEvents.EventDeliveryFailure;
+import net.ess.ebase.system.stats.FlightRecorderEvents.EventFanOut;
+
+/****************************************************************************
+ * <code>RingBufferEventChannel</code> is an asynchronous fan-out channel: accepting an event
+ * just publishes it into a preallocated ring, and each connected sink consumes the ring in
+ * batches, at its own pace. A slow sink therefore no longer stalls the thread that produced the
+ * event; it only falls behind, which shows up in its {@link #lag}.
+ * <p>
+ * Channels are opt-in: an entity's sinks are fed synchronously unless the entity binds a ring
+ * channel (see <code>MetaEntity.fanOutEventsAsynchronously</code>). Consumers don't own threads;
+ * a sink with pending events is scheduled as a task on the channel's executor (by default, the
+ * common pool, shared by all channels), and at most one task per sink runs at a time, so each
+ * sink sees events in publication order.
+ * <p>
+ * Any number of threads may publish. A publisher only waits when the ring is full, i.e. when the
+ * slowest sink is a whole ring behind, and how it waits is up to the channel's pluggable
+ * {@link WaitStrategy} (by default, backing off from spinning to parking). Slots are cleared once
+ * every sink has consumed them, so the ring doesn't retain delivered events.
+ * <p>
+ * The set of sinks is an immutable array replaced by compare-and-set, so publishers and
+ * consumers read it without coordination. A newly connected sink sees events published after
+ * it connects.
+ * <p>
+ * A sink's failure to accept an event is counted (see {@link #failures}) and recorded as an
+ * <code>EventDeliveryFailure</code> flight recorder event, and delivery continues.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class RingBufferEventChannel<E extends Event>
+  extends EventChannel<E>
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /*----- constants -----*/
+  /** Default ring capacity. */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /* The empty cursor set. */
+  private static final SinkCursor[] NO_CURSORS = new SinkCursor[0];
+
+  /*----- instance state -----*/
+  /* The ring's slots. */
+  private final Object[] slots;
+
+  /* For each slot, the sequence last published into it. */
+  private final AtomicLongArray published;
+
+  /* Index mask, capacity - 1. */
+  private final int mask;
+
+  /* The next sequence to be claimed by a publisher. */
+  private final AtomicLong claim = new PaddedSequence(0);
+
+  /* The sequence below which all slots have been consumed by every sink, and cleared. */
+  private final AtomicLong cleared = new PaddedSequence(0);
+
+  /* Held while advancing cleared. */
+  private final AtomicBoolean clearing = new AtomicBoolean();
+
+  /* The executor running consumers. */
+  private final Executor executor;
+
+  /* How publishers wait for ring space. */
+  private final WaitStrategy waitStrategy;
+
+  /* The connected sinks' cursors, replaced wholesale on (dis)connection. */
+  private final AtomicReference<SinkCursor[]> cursors = new AtomicReference<>(NO_CURSORS);
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public RingBufferEventChannel() {
+    this(DEFAULT_CAPACITY, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a channel having a ring of <code>capacity</code> slots, rounded up to a power of 2,
+   * whose consumers run on <code>executor</code>.
+   */
+  public RingBufferEventChannel(int capacity, Executor executor) {
+    this(capacity, executor, new BackoffWait());
+  }
+
+  /**
+   * Creates a channel having a ring of <code>capacity</code> slots, rounded up to a power of 2,
+   * whose consumers run on <code>executor</code>, and whose publishers wait for ring space per
+   * <code>waitStrategy</code>.
+   */
+  public RingBufferEventChannel(int capacity, Executor executor, WaitStrategy waitStrategy) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.slots = new Object[size];
+    this.published = new AtomicLongArray(size);
+    for(int i = 0; i < size; i++)
+      published.set(i, -1);
+    this.mask = size - 1;
+    this.executor = executor;
+    this.waitStrategy = waitStrategy;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Publishing
+  // ---------------------------
+  /**
+   * Publishes <code>event</code> to all connected sinks.
+   */
+  @Override
+  public void accept(E event) {
+    if(cursors.get().length == 0)
+      return;
+
+    long seq = claim.getAndIncrement();
+
+    // wait until every sink has consumed the slot's previous occupant
+    long wrapPoint = seq - slots.length;
+    for(int spins = 0; wrapPoint >= cleared.get(); spins++) {
+      clearConsumed();
+      if(wrapPoint >= cleared.get())
+        waitStrategy.publisherIdle(spins);
+    }
+
+    int index = (int) seq & mask;
+    slots[index] = event;
+    published.set(index, seq);
+    for(SinkCursor c : cursors.get())
+      c.schedule();
+  }
+
+  /*
+   * Clears the slots every sink has consumed, advancing cleared, and signals publishers waiting
+   * for space. One thread clears at a time; since the clearer rechecks after releasing, progress
+   * made meanwhile isn't missed.
+   */
+  private void clearConsumed() {
+    while(clearable() > cleared.get() && clearing.compareAndSet(false, true)) {
+      try {
+        long from = cleared.get();
+        long to = clearable();
+        for(long s = from; s < to; s++)
+          slots[(int) s & mask] = null;
+        if(to > from) {
+          cleared.set(to);
+          waitStrategy.signalAll();
+        }
+      } finally {
+        clearing.set(false);
+      }
+    }
+  }
+
+  /*
+   * Returns the sequence below which slots may be cleared: the smallest next-to-consume sequence
+   * among the sinks, or, with none connected, the first slot not yet published. Sinks never pass
+   * an unpublished slot, and without them, clearing stops short of slots claimed but still being
+   * written, so a publisher's event is never cleared from under it.
+   */
+  private long clearable() {
+    SinkCursor[] current = cursors.get();
+    if(current.length == 0)
+      return firstUnpublished();
+    long min = Long.MAX_VALUE;
+    for(SinkCursor c : current)
+      min = Math.min(min, c.sequence.get());
+    return min;
+  }
+
+  /*
+   * Returns the first sequence from cleared on that's claimed but not yet published, else the
+   * claim.
+   */
+  private long firstUnpublished() {
+    long limit = claim.get();
+    long s = cleared.get();
+    while(s < limit && published.get((int) s & mask) == s)
+      s++;
+    return s;
+  }
+
+  // ---------------------------
+  // Connection Management
+  // ---------------------------
+  /**
+   * Connects <code>sink</code>. Connecting an already connected sink is a no-op.
+   */
+  @Override
+  public void connectTo(EventChannel<E> sink) {
+    SinkCursor cursor = null;
+    for(;;) {
+      SinkCursor[] current = cursors.get();
+      for(SinkCursor c : current) {
+        if(c.sink == sink)
+          return;
+      }
+      if(cursor == null)
+        cursor = new SinkCursor(this, sink);
+      cursor.sequence.set(claim.get());
+      SinkCursor[] next = new SinkCursor[current.length + 1];
+      System.arraycopy(current, 0, next, 0, current.length);
+      next[current.length] = cursor;
+      if(cursors.compareAndSet(current, next))
+        return;
+    }
+  }
+
+  /**
+   * Disconnects <code>sink</code>; a batch already being delivered to it completes.
+   */
+  @Override
+  public void disconnectFrom(EventChannel<E> sink) {
+    for(;;) {
+      SinkCursor[] current = cursors.get();
+      int i = indexOf(current, sink);
+      if(i < 0)
+        return;
+      SinkCursor[] next = current.length == 1 ? NO_CURSORS : new SinkCursor[current.length - 1];
+      System.arraycopy(current, 0, next, 0, i);
+      System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+      if(cursors.compareAndSet(current, next)) {
+        current[i].running = false;
+        clearConsumed();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Disconnects all sinks.
+   */
+  @Override
+  public void disconnect() {
+    for(SinkCursor c : cursors.getAndSet(NO_CURSORS))
+      c.running = false;
+    clearConsumed();
+  }
+
+  /**
+   * Returns the connected sinks.
+   */
+  @Override
+  public List<EventChannel<E>> getSinks() {
+    SinkCursor[] current = cursors.get();
+    List<EventChannel<E>> sinks = new ArrayList<>(current.length);
+    for(SinkCursor c : current)
+      sinks.add(c.sink);
+    return sinks;
+  }
+
+  /*
+   * Returns the index of the cursor for <code>sink</code> in <code>cs</code>, or -1.
+   */
+  private int indexOf(SinkCursor[] cs, EventChannel<E> sink) {
+    for(int i = 0; i < cs.length; i++) {
+      if(cs[i].sink == sink)
+        return i;
+    }
+    return -1;
+  }
+
+  // ---------------------------
+  // Metrics
+  // ---------------------------
+  /**
+   * Returns how many published events <code>sink</code> has yet to consume, or -1 if it isn't
+   * connected.
+   */
+  public long lag(EventChannel<E> sink) {
+    SinkCursor[] current = cursors.get();
+    int i = indexOf(current, sink);
+    return i < 0 ? -1 : current[i].lag();
+  }
+
+  /**
+   * Returns each connected sink's lag, in connection order.
+   */
+  public Map<EventChannel<E>, Long> lags() {
+    Map<EventChannel<E>, Long> lags = new LinkedHashMap<>();
+    for(SinkCursor c : cursors.get())
+      lags.put(c.sink, c.lag());
+    return lags;
+  }
+
+  /**
+   * Returns the number of events <code>sink</code> has consumed, or -1 if it isn't connected.
+   */
+  public long delivered(EventChannel<E> sink) {
+    SinkCursor[] current = cursors.get();
+    int i = indexOf(current, sink);
+    return i < 0 ? -1 : current[i].delivered;
+  }
+
+  /**
+   * Returns the number of events <code>sink</code> failed to accept, or -1 if it isn't
+   * connected.
+   */
+  public long failures(EventChannel<E> sink) {
+    SinkCursor[] current = cursors.get();
+    int i = indexOf(current, sink);
+    return i < 0 ? -1 : current[i].failures;
+  }
+
+  /**
+   * Returns the ring's capacity.
+   */
+  public int capacity() {
+    return slots.length;
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>SinkCursor</code> is one sink's consumer: its position in the ring, and the task
+   * delivering events to it, scheduled on the channel's executor whenever events are pending.
+   ****************************************************************************/
+  static class SinkCursor
+    implements Runnable
+  {
+    /* The channel whose ring is consumed. */
+    final RingBufferEventChannel ring;
+
+    /* The sink being fed. */
+    final EventChannel sink;
+
+    /* The next sequence this sink will consume. */
+    final AtomicLong sequence = new PaddedSequence(0);
+
+    /* Consumed event, batch and failure counts, written only by the running task. */
+    volatile long delivered;
+    volatile long batches;
+    volatile long failures;
+
+    /* Whether a task is scheduled or running. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    volatile boolean running = true;
+
+    SinkCursor(RingBufferEventChannel ring, EventChannel sink) {
+      this.ring = ring;
+      this.sink = sink;
+    }
+
+    /*
+     * Schedules a delivery task, unless one is already scheduled or running.
+     */
+    void schedule() {
+      if(running && scheduled.compareAndSet(false, true))
+        ring.executor.execute(this);
+    }
+
+    long lag() {
+      return Math.max(0, ring.claim.get() - sequence.get());
+    }
+
+    @Override
+    public void run() {
+      try {
+        drain();
+      } finally {
+        scheduled.set(false);
+      }
+      // catch events published while finishing, whose publishers saw the task still scheduled
+      long next = sequence.get();
+      if(running && ring.published.get((int) next & ring.mask) == next)
+        schedule();
+    }
+
+    /*
+     * Delivers at most a ring's worth of published events, so that a busy sink yields its
+     * executor thread to other sinks.
+     */
+    private void drain() {
+      long next = sequence.get();
+      long limit = Math.min(ring.claim.get() - 1, next + ring.slots.length - 1);
+      long last = highestPublished(next, limit);
+      if(!running || last < next)
+        return;
+
+      // deliver the whole available batch before publishing progress
+      EventFanOut event = new EventFanOut();
+      event.begin();
+      int count = 0;
+      for(long s = next; s <= last; s++) {
+        // a slot may already be cleared if the sink was disconnected mid-batch
+        Event e = (Event) ring.slots[(int) s & ring.mask];
+        if(e == null)
+          continue;
+        count++;
+        try {
+          sink.accept(e);
+        } catch(RuntimeException x) {
+          failed(x);
+        }
+      }
+      event.end();
+      if(event.shouldCommit()) {
+        event.channel = ring.toString();
+        event.batchSize = count;
+        event.commit();
+      }
+      delivered += count;
+      batches++;
+      sequence.set(last + 1);
+      ring.clearConsumed();
+    }
+
+    /*
+     * Records the sink's failure to accept an event.
+     */
+    private void failed(RuntimeException x) {
+      failures++;
+      EventDeliveryFailure failure = new EventDeliveryFailure();
+      if(failure.shouldCommit()) {
+        failure.channel = ring.toString();
+        failure.sink = String.valueOf(sink);
+        failure.exception = x.toString();
+        failure.commit();
+      }
+    }
+
+    /*
+     * Returns the highest sequence in [from, to] up to which all slots are published, or
+     * <code>from - 1</code> if <code>from</code> itself isn't.
+     */
+    private long highestPublished(long from, long to) {
+      for(long s = from; s <= to; s++) {
+        if(ring.published.get((int) s & ring.mask) != s)
+          return s - 1;
+      }
+      return to;
+    }
+  }
+
+  /****************************************************************************
+   * <code>WaitStrategy</code> determines how publishers wait for a full ring to drain.
+   ****************************************************************************/
+  public interface WaitStrategy
+  {
+    /**
+     * Waits a little, having already waited <code>spins</code> times for ring space.
+     */
+    void publisherIdle(int spins);
+
+    /**
+     * Wakes waiting publishers after slots have been cleared.
+     */
+    default void signalAll() {}
+  }
+
+  /****************************************************************************
+   * <code>BackoffWait</code> spins, yields, then parks for exponentially longer, up to a
+   * millisecond; the default.
+   ****************************************************************************/
+  public static class BackoffWait
+    implements WaitStrategy
+  {
+    /* The longest a publisher parks between checks for ring space. */
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    @Override
+    public void publisherIdle(int spins) {
+      if(spins < 100) {
+        Thread.onSpinWait();
+      } else if(spins < 200) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1_000L << Math.min(spins - 200, 10)));
+      }
+    }
+  }
+
+  /****************************************************************************
+   * <code>BusySpinWait</code> spins, giving the lowest latency at the cost of a core per waiting
+   * publisher.
+   ****************************************************************************/
+  public static class BusySpinWait
+    implements WaitStrategy
+  {
+    @Override
+    public void publisherIdle(int spins) {
+      Thread.onSpinWait();
+    }
+  }
+
+  /****************************************************************************
+   * <code>YieldingWait</code> spins briefly, then yields.
+   ****************************************************************************/
+  public static class YieldingWait
+    implements WaitStrategy
+  {
+    @Override
+    public void publisherIdle(int spins) {
+      if(spins < 100) {
+        Thread.onSpinWait();
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  /****************************************************************************
+   * <code>SleepingWait</code> spins, yields, then parks for <code>sleepNanos</code>, trading
+   * latency for near-zero idle cost without any signaling on the clearing path.
+   ****************************************************************************/
+  public static class SleepingWait
+    implements WaitStrategy
+  {
+    private final long sleepNanos;
+
+    public SleepingWait(long sleepNanos) {
+      this.sleepNanos = sleepNanos;
+    }
+
+    @Override
+    public void publisherIdle(int spins) {
+      if(spins < 100) {
+        Thread.onSpinWait();
+      } else if(spins < 200) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(sleepNanos);
+      }
+    }
+  }
+
+  /****************************************************************************
+   * <code>BlockingWait</code> blocks waiting publishers on a condition. Clearers only take the
+   * lock to signal when some publisher is actually blocked.
+   ****************************************************************************/
+  public static class BlockingWait
+    implements WaitStrategy
+  {
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition cleared = lock.newCondition();
+
+    private final AtomicLong waiters = new AtomicLong();
+
+    @Override
+    public void publisherIdle(int spins) {
+      if(spins < 100) {
+        Thread.onSpinWait();
+        return;
+      }
+      lock.lock();
+      try {
+        waiters.incrementAndGet();
+        // bounded, since a clearing may slip in between the publisher's check and here
+        cleared.awaitNanos(1_000_000);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        waiters.decrementAndGet();
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void signalAll() {
+      if(waiters.get() == 0)
+        return;
+      lock.lock();
+      try {
+        cleared.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /****************************************************************************
+   * <code>PaddedSequence</code> is a sequence counter padded so that counters of different
+   * sinks (and the publishers' claim) don't share cache lines.
+   ****************************************************************************/
+  static class PaddedSequence
+    extends AtomicLong
+  {
+    long p1, p2, p3, p4, p5, p6, p7;
+
+    PaddedSequence(long initial) {
+      super(initial);
+    }
+  }
+
+}
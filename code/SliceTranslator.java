@@ -0,0 +1,543 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.translation;
+
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.typeSystem.core.Type;
+
+/****************************************************************************
+ * <code>SliceTranslator</code> is an <code>IValueTranslator</code> specialized for bulk text
+ * import and export (e.g. CSV and JSON feeds): it decodes values directly from a slice of a
+ * <code>CharSequence</code>, without allocating a substring, and encodes them into a
+ * caller-supplied <code>StringBuilder</code>, which callers reuse across values.
+ * <p>
+ * {@link #forType} returns the translator specialized for a type: one of the codecs below for
+ * primitive, boxed, string, and enum types, or a {@link StructureSliceTranslator} for structured
+ * types. The string-based <code>IValueTranslator</code> methods are implemented in terms of the
+ * slice methods, so a slice translator can stand in wherever a translator is expected.
+ * <p>
+ * An empty slice decodes to null (or the type's zero for primitives), and null encodes as an empty
+ * slice.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public abstract class SliceTranslator
+  implements IValueTranslator
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* Each thread's buffer for encode(Object). */
+  private static final ThreadLocal<StringBuilder> buffers =
+      ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+  /* Exact powers of ten, for the decimal fast path. */
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+      1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  /** The translated type. */
+  public final Type<?> type;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  protected SliceTranslator(Type<?> type) {
+    this.type = type;
+  }
+
+  /**
+   * Returns the slice translator specialized for <code>type</code>, or null if there's none.
+   */
+  public static SliceTranslator forType(Type<?> type) {
+    Class<?> c = type.iClass;
+    if(c == null)
+      return null;
+    if(c == long.class || c == Long.class)
+      return new LongCodec(type, c.isPrimitive());
+    if(c == int.class || c == Integer.class)
+      return new IntCodec(type, c.isPrimitive());
+    if(c == short.class || c == Short.class)
+      return new ShortCodec(type, c.isPrimitive());
+    if(c == byte.class || c == Byte.class)
+      return new ByteCodec(type, c.isPrimitive());
+    if(c == double.class || c == Double.class)
+      return new DoubleCodec(type, c.isPrimitive());
+    if(c == float.class || c == Float.class)
+      return new FloatCodec(type, c.isPrimitive());
+    if(c == boolean.class || c == Boolean.class)
+      return new BooleanCodec(type, c.isPrimitive());
+    if(c == char.class || c == Character.class)
+      return new CharCodec(type, c.isPrimitive());
+    if(c == String.class)
+      return new StringCodec(type);
+    if(c.isEnum())
+      return new EnumCodec(type);
+    if(type.isStructured())
+      return StructureSliceTranslator.forType(type);
+    return null;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  // ---------------------------
+  // Slice Translation
+  // ---------------------------
+  /**
+   * Returns the value encoded by <code>s</code> from <code>start</code> (inclusive) to
+   * <code>end</code> (exclusive).
+   */
+  public abstract Object decode(CharSequence s, int start, int end);
+
+  /**
+   * Appends the encoding of <code>value</code> to <code>out</code>.
+   */
+  public abstract void encodeTo(Object value, StringBuilder out);
+
+  // ---------------------------
+  // IValueTranslator
+  // ---------------------------
+  @Override
+  public Object decode(String encoding) {
+    return decode(encoding, 0, encoding.length());
+  }
+
+  @Override
+  public Object decode(String encoding, Type subjectType) {
+    return decode(encoding, 0, encoding.length());
+  }
+
+  @Override
+  public String encode(Object value) {
+    StringBuilder out = buffers.get();
+    out.setLength(0);
+    encodeTo(value, out);
+    return out.toString();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(" + type + ")";
+  }
+
+  // ---------------------------
+  // Parsing
+  // ---------------------------
+  /**
+   * Returns the index of the first non-whitespace char of s in [start, end), or end.
+   */
+  protected static int skipLeading(CharSequence s, int start, int end) {
+    while(start < end && Character.isWhitespace(s.charAt(start)))
+      start++;
+    return start;
+  }
+
+  /**
+   * Returns the index just past the last non-whitespace char of s in [start, end), or start.
+   */
+  protected static int skipTrailing(CharSequence s, int start, int end) {
+    while(end > start && Character.isWhitespace(s.charAt(end - 1)))
+      end--;
+    return end;
+  }
+
+  /**
+   * Parses the decimal integer in s[start, end), which is trimmed and non-empty.
+   */
+  protected static long parseLong(CharSequence s, int start, int end, long min, long max) {
+    int i = start;
+    boolean negative = false;
+    char c = s.charAt(i);
+    if(c == '-' || c == '+') {
+      negative = c == '-';
+      if(++i == end)
+        throw malformed(s, start, end, "integer");
+    }
+    long limit = negative ? min : -max;
+    long result = 0;
+    for(; i < end; i++) {
+      int d = s.charAt(i) - '0';
+      if(d < 0 || d > 9)
+        throw malformed(s, start, end, "integer");
+      // accumulate negatively, so min's magnitude is representable
+      if(result < (limit + d) / 10)
+        throw malformed(s, start, end, "integer in range");
+      result = result * 10 - d;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses the decimal number in s[start, end), which is trimmed and non-empty. Plain decimals of
+   * up to 15 significant digits are converted exactly without allocating; others fall back to
+   * <code>Double.parseDouble</code>.
+   */
+  protected static double parseDouble(CharSequence s, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    char c = s.charAt(i);
+    if(c == '-' || c == '+') {
+      negative = c == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0, fractionDigits = 0;
+    boolean point = false, sawDigit = false;
+    for(; i < end; i++) {
+      c = s.charAt(i);
+      if(c >= '0' && c <= '9') {
+        sawDigit = true;
+        if(digits > 0 || c != '0')
+          digits++;
+        mantissa = mantissa * 10 + (c - '0');
+        if(point)
+          fractionDigits++;
+      } else if(c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if(i == end && sawDigit && digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+      double d = mantissa / POWERS_OF_TEN[fractionDigits];
+      return negative ? -d : d;
+    }
+    try {
+      return Double.parseDouble(s.subSequence(start, end).toString());
+    } catch(NumberFormatException e) {
+      throw malformed(s, start, end, "number");
+    }
+  }
+
+  /**
+   * Returns an exception reporting that s[start, end) isn't a well-formed <code>what</code>.
+   */
+  protected static AbortException malformed(CharSequence s, int start, int end, String what) {
+    return new AbortException("malformed %s: \"%s\"", what, s.subSequence(start, end));
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>NumericCodec</code> is the base of the primitive codecs: it trims the slice, and decodes
+   * an empty slice as null, or zero for a primitive type.
+   ****************************************************************************/
+  abstract static class NumericCodec
+    extends SliceTranslator
+  {
+    /* Whether the type's primitive, so empty slices decode as zero. */
+    final boolean primitive;
+
+    NumericCodec(Type<?> type, boolean primitive) {
+      super(type);
+      this.primitive = primitive;
+    }
+
+    @Override
+    public Object decode(CharSequence s, int start, int end) {
+      start = skipLeading(s, start, end);
+      end = skipTrailing(s, start, end);
+      if(start == end)
+        return primitive ? zero() : null;
+      return decodeTrimmed(s, start, end);
+    }
+
+    abstract Object zero();
+
+    abstract Object decodeTrimmed(CharSequence s, int start, int end);
+  }
+
+  static final class LongCodec
+    extends NumericCodec
+  {
+    LongCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    Object zero() {
+      return 0L;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      return parseLong(s, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Number) value).longValue());
+    }
+  }
+
+  static final class IntCodec
+    extends NumericCodec
+  {
+    IntCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    Object zero() {
+      return 0;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      return (int) parseLong(s, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Number) value).intValue());
+    }
+  }
+
+  static final class ShortCodec
+    extends NumericCodec
+  {
+    ShortCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    Object zero() {
+      return (short) 0;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      return (short) parseLong(s, start, end, Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Number) value).shortValue());
+    }
+  }
+
+  static final class ByteCodec
+    extends NumericCodec
+  {
+    ByteCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    Object zero() {
+      return (byte) 0;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      return (byte) parseLong(s, start, end, Byte.MIN_VALUE, Byte.MAX_VALUE);
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Number) value).byteValue());
+    }
+  }
+
+  static final class DoubleCodec
+    extends NumericCodec
+  {
+    DoubleCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    Object zero() {
+      return 0.0;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      return parseDouble(s, start, end);
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Number) value).doubleValue());
+    }
+  }
+
+  static final class FloatCodec
+    extends NumericCodec
+  {
+    FloatCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    Object zero() {
+      return 0.0f;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      return (float) parseDouble(s, start, end);
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Number) value).floatValue());
+    }
+  }
+
+  static final class BooleanCodec
+    extends NumericCodec
+  {
+    BooleanCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    Object zero() {
+      return Boolean.FALSE;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      if(matches(s, start, end, "true"))
+        return Boolean.TRUE;
+      if(matches(s, start, end, "false"))
+        return Boolean.FALSE;
+      throw malformed(s, start, end, "boolean");
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Boolean) value).booleanValue());
+    }
+
+    private static boolean matches(CharSequence s, int start, int end, String word) {
+      if(end - start != word.length())
+        return false;
+      for(int i = 0; i < word.length(); i++) {
+        if(Character.toLowerCase(s.charAt(start + i)) != word.charAt(i))
+          return false;
+      }
+      return true;
+    }
+  }
+
+  static final class CharCodec
+    extends NumericCodec
+  {
+    CharCodec(Type<?> type, boolean primitive) {
+      super(type, primitive);
+    }
+
+    @Override
+    public Object decode(CharSequence s, int start, int end) {
+      // chars aren't trimmed, since whitespace is a legal value
+      if(start == end)
+        return primitive ? zero() : null;
+      return decodeTrimmed(s, start, end);
+    }
+
+    @Override
+    Object zero() {
+      return (char) 0;
+    }
+
+    @Override
+    Object decodeTrimmed(CharSequence s, int start, int end) {
+      if(end - start != 1)
+        throw malformed(s, start, end, "char");
+      return s.charAt(start);
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Character) value).charValue());
+    }
+  }
+
+  static final class StringCodec
+    extends SliceTranslator
+  {
+    StringCodec(Type<?> type) {
+      super(type);
+    }
+
+    @Override
+    public Object decode(CharSequence s, int start, int end) {
+      if(start == end)
+        return null;
+
+      // the one codec that must allocate: its value is the substring
+      if(start == 0 && end == s.length() && s instanceof String)
+        return s;
+      return s.subSequence(start, end).toString();
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append((String) value);
+    }
+  }
+
+  static final class EnumCodec
+    extends SliceTranslator
+  {
+    /* The enum's constants, and their names. */
+    private final Enum<?>[] constants;
+
+    private final String[] names;
+
+    EnumCodec(Type<?> type) {
+      super(type);
+      constants = (Enum<?>[]) type.iClass.getEnumConstants();
+      names = new String[constants.length];
+      for(int i = 0; i < constants.length; i++)
+        names[i] = constants[i].name();
+    }
+
+    @Override
+    public Object decode(CharSequence s, int start, int end) {
+      start = skipLeading(s, start, end);
+      end = skipTrailing(s, start, end);
+      if(start == end)
+        return null;
+      int n = end - start;
+      for(int i = 0; i < names.length; i++) {
+        String name = names[i];
+        if(name.length() != n)
+          continue;
+        int j = 0;
+        while(j < n && name.charAt(j) == s.charAt(start + j))
+          j++;
+        if(j == n)
+          return constants[i];
+      }
+      throw malformed(s, start, end, type + " constant");
+    }
+
+    @Override
+    public void encodeTo(Object value, StringBuilder out) {
+      if(value != null)
+        out.append(((Enum<?>) value).name());
+    }
+  }
+
+}
@@ -0,0 +1,187 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.core.entities;
+
+import java.util.Arrays;
+
+import net.ess.ebase.core.spaces.Space;
+
+/****************************************************************************
+ * <code>SpaceLinkIndex</code> indexes the links of an entity that lives in many spaces (indexes,
+ * caches, folders, tables), so that {@link MetaEntity#linkFrom}, {@link MetaEntity#spaceOfClass}
+ * and {@link MetaEntity#setId} needn't walk its link chain.
+ * <p>
+ * A meta builds its index only once a lookup walks past {@link #THRESHOLD} links, so entities in
+ * just a few spaces pay nothing. Spaces are indexed when the index is built, in a single
+ * open-addressed array; space classes and identity names are indexed as they're looked up, in
+ * small arrays of (key, link) pairs, which are replaced whole as pairs are added.
+ * <p>
+ * The index snapshots the meta's link modification count, and is stale once it changes, i.e. once
+ * anything splices links into or out of the chain and calls
+ * {@link MetaEntity#invalidateLinkIndex}. As a backstop, it also checks the chain's first and last
+ * links, which catches links prepended or appended without notice.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+final class SpaceLinkIndex
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Number of links a lookup may walk before its meta builds an index. */
+  static final int THRESHOLD = 4;
+
+  /* Marks a space class having no link. */
+  private static final Object MISSING = new Object();
+
+  private static final Object[] NO_PAIRS = new Object[0];
+
+  /* The meta's link modification count when indexed. */
+  private final int modCount;
+
+  /* The chain's links after the meta, and last link, when indexed. */
+  private final SpaceLink first, last;
+
+  /* Maps spaces to their (first) links: an open-addressed table, with each slot's space at an
+   * even index, and its link just after. */
+  private final Object[] bySpace;
+
+  /* Looked-up space classes and their first links (or MISSING), and looked-up identity names and
+   * the first links having (or pending) them, as (key, link) pairs. */
+  private volatile Object[] bySpaceClass = NO_PAIRS, byIdentity = NO_PAIRS;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  SpaceLinkIndex(MetaEntity meta) {
+    modCount = meta.linkModCount();
+    first = meta.nextLink;
+    SpaceLink link, tail = meta;
+    int n = 0;
+    for(link = meta; link != null; link = link.nextLink, n++)
+      tail = link;
+    last = tail;
+
+    // at least twice as many slots as links, so probes stay short and always find an empty slot
+    int slots = Integer.highestOneBit(Math.max(n, 1) * 2 - 1) << 1;
+    bySpace = new Object[slots * 2];
+    int mask = slots - 1;
+    for(link = meta; link != null; link = link.nextLink) {
+      Space space = link.space;
+      if(space == null)
+        continue;
+      for(int i = slotOf(space, mask);; i = (i + 1) & mask) {
+        Object s = bySpace[i * 2];
+        if(s == null) {
+          bySpace[i * 2] = space;
+          bySpace[i * 2 + 1] = link;
+          break;
+        }
+        if(s == space)
+          break;
+      }
+    }
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns whether this index still describes <code>meta</code>'s chain.
+   */
+  boolean isCurrent(MetaEntity meta) {
+    return meta.linkModCount() == modCount && meta.nextLink == first && last.nextLink == null;
+  }
+
+  /**
+   * Returns the link from <code>space</code>, or null.
+   */
+  SpaceLink linkFrom(Space space) {
+    int mask = (bySpace.length >> 1) - 1;
+    for(int i = slotOf(space, mask);; i = (i + 1) & mask) {
+      Object s = bySpace[i * 2];
+      if(s == null)
+        return null;
+      if(s == space) {
+        SpaceLink link = (SpaceLink) bySpace[i * 2 + 1];
+        return link.space == space ? link : null;
+      }
+    }
+  }
+
+  /**
+   * Returns the first link whose space has class <code>spaceClass</code>, or null; scans the
+   * chain from <code>meta</code> on first lookup of the class.
+   */
+  SpaceLink linkOfSpaceClass(MetaEntity meta, Class<?> spaceClass) {
+    Object cached = lookup(bySpaceClass, spaceClass);
+    if(cached == MISSING)
+      return null;
+    if(cached != null && spaceClass.isInstance(((SpaceLink) cached).space))
+      return (SpaceLink) cached;
+    for(SpaceLink link = meta; link != null; link = link.nextLink) {
+      if(spaceClass.isInstance(link.space)) {
+        bySpaceClass = with(bySpaceClass, spaceClass, link);
+        return link;
+      }
+    }
+    bySpaceClass = with(bySpaceClass, spaceClass, MISSING);
+    return null;
+  }
+
+  /**
+   * Returns the link noted as having identity <code>identityName</code>, or null.
+   */
+  SpaceLink identityLink(String identityName) {
+    return (SpaceLink) lookup(byIdentity, identityName);
+  }
+
+  /**
+   * Notes that <code>link</code> is the first link having identity <code>identityName</code>.
+   */
+  void noteIdentityLink(String identityName, SpaceLink link) {
+    byIdentity = with(byIdentity, identityName, link);
+  }
+
+  /*
+   * Returns the value paired with key in pairs, or null.
+   */
+  private static Object lookup(Object[] pairs, Object key) {
+    for(int i = 0; i < pairs.length; i += 2) {
+      if(key.equals(pairs[i]))
+        return pairs[i + 1];
+    }
+    return null;
+  }
+
+  /*
+   * Returns a copy of pairs, with key paired with value. Racing additions may lose one another's
+   * pair, which is then just looked up again.
+   */
+  private static Object[] with(Object[] pairs, Object key, Object value) {
+    for(int i = 0; i < pairs.length; i += 2) {
+      if(key.equals(pairs[i])) {
+        Object[] a = pairs.clone();
+        a[i + 1] = value;
+        return a;
+      }
+    }
+    Object[] a = Arrays.copyOf(pairs, pairs.length + 2);
+    a[pairs.length] = key;
+    a[pairs.length + 1] = value;
+    return a;
+  }
+
+  private static int slotOf(Object space, int mask) {
+    int h = System.identityHashCode(space) * 0x9E3779B1;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+}
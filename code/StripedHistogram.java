@@ -0,0 +1,138 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.system.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/****************************************************************************
+ * <code>StripedHistogram</code> is a contention-free histogram of non-negative values (typically
+ * durations in nanoseconds), with power-of-two buckets: bucket <i>i</i> counts the values in
+ * <code>[2^(i-1), 2^i)</code>, and bucket 0 counts zeros.
+ * <p>
+ * Each bucket, the count, and the sum are <code>LongAdder</code>s, whose cells are padded against
+ * false sharing, so concurrent recorders neither contend nor share cache lines. Reads are
+ * consistent per bucket, but not across buckets.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class StripedHistogram
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The number of buckets. */
+  public static final int BUCKETS = 64;
+
+  /** The histogram's name, as exported. */
+  public final String name;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public StripedHistogram(String name) {
+    this.name = name;
+    for(int i = 0; i < BUCKETS; i++)
+      buckets[i] = new LongAdder();
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Records <code>value</code>, clamped to be non-negative.
+   */
+  public void record(long value) {
+    long v = Math.max(0, value);
+    buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v))].increment();
+    count.increment();
+    sum.add(v);
+  }
+
+  /**
+   * Records the nanoseconds elapsed since <code>startNanos</code>, a <code>System.nanoTime()</code>.
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Returns the number of values recorded.
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the sum of the values recorded.
+   */
+  public long sum() {
+    return sum.sum();
+  }
+
+  /**
+   * Returns the mean of the values recorded, or 0 if none.
+   */
+  public double mean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * Returns the count of bucket <code>i</code>.
+   */
+  public long bucketCount(int i) {
+    return buckets[i].sum();
+  }
+
+  /**
+   * Returns the (exclusive) upper bound of bucket <code>i</code>.
+   */
+  public static long bucketBound(int i) {
+    return i >= 63 ? Long.MAX_VALUE : 1L << i;
+  }
+
+  /**
+   * Returns an upper bound on the <code>q</code>-quantile (e.g. 0.99) of the values recorded,
+   * accurate to within a factor of 2, or 0 if none.
+   */
+  public long quantile(double q) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for(int i = 0; i < BUCKETS; i++)
+      total += counts[i] = buckets[i].sum();
+    if(total == 0)
+      return 0;
+    long rank = (long) Math.ceil(q * total);
+    long seen = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if(seen >= rank)
+        return bucketBound(i);
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Resets all counts to zero.
+   */
+  public void reset() {
+    for(LongAdder b : buckets)
+      b.reset();
+    count.reset();
+    sum.reset();
+  }
+
+}
@@ -0,0 +1,189 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.translation;
+
+import java.util.ArrayList;
+
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.facets.Attribute;
+
+/****************************************************************************
+ * <code>StructureSliceTranslator</code> translates a structured type's instances as the
+ * delimited encodings of their persistable attributes, in attribute order. Occurrences of the
+ * delimiter or the escape char within an attribute's encoding are escaped with
+ * <code>'\\'</code>.
+ * <p>
+ * The translator's built once per type, resolving a translator for each attribute up front:
+ * attributes of primitive, string, and enum types get their specialized {@link SliceTranslator}s,
+ * so decoding them allocates no substrings. Attributes referencing other structured types are
+ * translated by those types' own translators, resolved on first use, since structures may refer
+ * to each other cyclically.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class StructureSliceTranslator
+  extends SliceTranslator
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The default delimiter between attribute encodings. */
+  public static final char DEFAULT_DELIMITER = ';';
+
+  private static final char ESCAPE = '\\';
+
+  /* Each thread's buffer for unescaping attribute encodings. */
+  private static final ThreadLocal<StringBuilder> unescapeBuffers =
+      ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+  /** The delimiter between attribute encodings. */
+  public final char delimiter;
+
+  /* The persistable attributes, their value types, and their translators; a structured
+   * attribute's translator is null until first used. */
+  private final Attribute[] attributes;
+
+  private final Type<?>[] valueTypes;
+
+  private final IValueTranslator[] translators;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public StructureSliceTranslator(Type<?> type, char delimiter) {
+    super(type);
+    this.delimiter = delimiter;
+    ArrayList<Attribute> pAttributes = new ArrayList<>();
+    for(Attribute attribute : type.attributes()) {
+      if(attribute.isPersistable())
+        pAttributes.add(attribute);
+    }
+    attributes = pAttributes.toArray(new Attribute[pAttributes.size()]);
+    valueTypes = new Type<?>[attributes.length];
+    translators = new IValueTranslator[attributes.length];
+    for(int i = 0; i < attributes.length; i++) {
+      Type<?> valueType = valueTypes[i] = attributes[i].out();
+      // don't recurse into structures, which may be cyclic; resolve their translators on first use
+      if(!valueType.isStructured()) {
+        SliceTranslator st = SliceTranslator.forType(valueType);
+        translators[i] = st != null ? st : valueType.translator();
+      }
+    }
+  }
+
+  /**
+   * Returns a translator for structured <code>type</code>, using the default delimiter.
+   */
+  public static StructureSliceTranslator forType(Type<?> type) {
+    return new StructureSliceTranslator(type, DEFAULT_DELIMITER);
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Override
+  public Object decode(CharSequence s, int start, int end) {
+    if(start == end)
+      return null;
+    Object value = type.instance();
+    int i = start;
+    for(int a = 0; a < attributes.length; a++) {
+      // find the end of this attribute's encoding, noting any escapes
+      int fieldEnd = i;
+      boolean escaped = false;
+      while(fieldEnd < end) {
+        char c = s.charAt(fieldEnd);
+        if(c == ESCAPE && fieldEnd + 1 < end) {
+          escaped = true;
+          fieldEnd += 2;
+        } else if(c == delimiter) {
+          break;
+        } else {
+          fieldEnd++;
+        }
+      }
+      attributes[a].put(value, escaped
+          ? decodeField(a, unescape(s, i, fieldEnd), 0, -1)
+          : decodeField(a, s, i, fieldEnd));
+      i = fieldEnd + 1;
+      if(i > end)
+        break;
+    }
+    return value;
+  }
+
+  @Override
+  public void encodeTo(Object value, StringBuilder out) {
+    if(value == null)
+      return;
+    for(int a = 0; a < attributes.length; a++) {
+      if(a > 0)
+        out.append(delimiter);
+      Object v = attributes[a].apply(value);
+      int fieldStart = out.length();
+      IValueTranslator t = translator(a);
+      if(t instanceof SliceTranslator)
+        ((SliceTranslator) t).encodeTo(v, out);
+      else if(v != null)
+        out.append(t.encode(v));
+      escape(out, fieldStart);
+    }
+  }
+
+  /*
+   * Decodes attribute a's encoding in s[start, end); an end of -1 means s's length.
+   */
+  private Object decodeField(int a, CharSequence s, int start, int end) {
+    if(end < 0)
+      end = s.length();
+    IValueTranslator t = translator(a);
+    if(t instanceof SliceTranslator)
+      return ((SliceTranslator) t).decode(s, start, end);
+    return start == end ? null : t.decode(s.subSequence(start, end).toString());
+  }
+
+  /*
+   * Returns attribute a's translator, resolving a structured attribute's on first use; racing
+   * resolutions yield the same translator.
+   */
+  private IValueTranslator translator(int a) {
+    IValueTranslator t = translators[a];
+    if(t == null)
+      translators[a] = t = valueTypes[a].translator();
+    return t;
+  }
+
+  /*
+   * Returns s[start, end) unescaped, in this thread's unescape buffer.
+   */
+  private static CharSequence unescape(CharSequence s, int start, int end) {
+    StringBuilder b = unescapeBuffers.get();
+    b.setLength(0);
+    for(int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if(c == ESCAPE && i + 1 < end)
+        c = s.charAt(++i);
+      b.append(c);
+    }
+    return b;
+  }
+
+  /*
+   * Escapes delimiters and escape chars appended to out since from.
+   */
+  private void escape(StringBuilder out, int from) {
+    for(int i = from; i < out.length(); i++) {
+      char c = out.charAt(i);
+      if(c == delimiter || c == ESCAPE)
+        out.insert(i++, ESCAPE);
+    }
+  }
+
+}
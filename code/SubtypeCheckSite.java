@@ -0,0 +1,92 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.core;
+
+import java.lang.ref.WeakReference;
+
+/****************************************************************************
+ * <code>SubtypeCheckSite</code> is a monomorphic inline cache for a call site that repeatedly
+ * tests whether types are subtypes of a fixed target type, e.g. a validation loop:
+ *
+ * <pre>
+ * static final SubtypeCheckSite isEntity = new SubtypeCheckSite(entityType);
+ * ...
+ * if(isEntity.test(t)) ...
+ * </pre>
+ *
+ * The site remembers the last type tested and its result, so a run of tests of the same type
+ * costs an identity compare, without allocating. On a miss it defers to {@link Type#isSubtypeOf},
+ * which in turn probes the shared {@link TypeComparisonCache}. The remembered result is stamped
+ * with that cache's epoch, read before testing, so it's dropped whenever type inheritance
+ * changes, including while the test was computed. Like the cache, the site holds the tested type
+ * weakly.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class SubtypeCheckSite
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The type tested against. */
+  public final Type target;
+
+  /* The last result; replaced whole, so safely published by a plain store. */
+  private Last last;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public SubtypeCheckSite(Type target) {
+    this.target = target;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns whether <code>t</code> is a subtype of the target.
+   */
+  public boolean test(Type t) {
+    int epoch = Type.comparisonCache.epoch();
+    Last l = last;
+    if(l != null && l.epoch == epoch && l.get() == t)
+      return l.isSubtype;
+    boolean isSubtype = t.isSubtypeOf(target);
+    last = new Last(t, isSubtype, epoch);
+    return isSubtype;
+  }
+
+  @Override
+  public String toString() {
+    return "SubtypeCheckSite(" + target + ")";
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Last</code> is the site's remembered test, referring to the tested type weakly.
+   ****************************************************************************/
+  private static final class Last
+    extends WeakReference<Type>
+  {
+    final boolean isSubtype;
+
+    final int epoch;
+
+    Last(Type type, boolean isSubtype, int epoch) {
+      super(type);
+      this.isSubtype = isSubtype;
+      this.epoch = epoch;
+    }
+  }
+
+}
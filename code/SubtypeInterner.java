@@ -0,0 +1,248 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/****************************************************************************
+ * <code>SubtypeInterner</code> canonicalizes the parametric subtypes derived from a type, so
+ * that e.g. every request for <code>List&lt;Order&gt;</code> yields the same subtype, found by a
+ * single hash probe, rather than a freshly built duplicate.
+ * <p>
+ * The table is keyed on (base type, parameter types), both held weakly, and holds its subtypes
+ * weakly too, so interning never keeps a type alive; entries whose subtype has been collected
+ * are expunged on misses, as new subtypes are interned. Hits probe with a per-thread key, so they
+ * allocate nothing.
+ * <p>
+ * On a miss, the base type's <code>variantChain</code> (the backing list of its variants) is
+ * searched before a new subtype is built, so subtypes created before being interned are still
+ * found. The search and the builder run under the base type's monitor, like the type's own
+ * <code>synchronized</code> installers, so each subtype's built only once; builders may intern
+ * further subtypes, since monitors are reentrant.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+final class SubtypeInterner
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* The table of interned subtypes. */
+  private static final ConcurrentHashMap<Key, SubtypeRef> table = new ConcurrentHashMap<>();
+
+  /* Receives the references of collected subtypes. */
+  private static final ReferenceQueue<Type> collected = new ReferenceQueue<>();
+
+  /* Each thread's key for probing the table. */
+  private static final ThreadLocal<Key> probes = ThreadLocal.withInitial(Key::new);
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private SubtypeInterner() {}
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns the canonical subtype of <code>base</code> having parameters with value types
+   * <code>types</code> (or, if <code>isOut</code>, having out type <code>types[0]</code>),
+   * calling <code>builder</code> to create it if there's none.
+   */
+  static <T extends Type> T intern(Type base, Type[] types, boolean isOut, Supplier<T> builder) {
+    Key probe = probes.get().probe(base, types, isOut);
+    SubtypeRef ref;
+    try {
+      ref = table.get(probe);
+    } finally {
+      // don't let the thread's key keep the types alive
+      probe.clear();
+    }
+    Type subtype = ref != null ? ref.get() : null;
+    if(subtype != null)
+      return (T) subtype;
+
+    expungeCollected();
+    // the builder may intern recursively, reusing the thread's key, so miss with a key of our own
+    probe = new Key().probe(base, types, isOut);
+    synchronized(base) {
+      ref = table.get(probe);
+      subtype = ref != null ? ref.get() : null;
+      if(subtype == null) {
+        subtype = findVariant(base, types, isOut);
+        if(subtype == null) {
+          subtype = builder.get();
+          if(base.isBaseType() && !subtype.isBaseType() && findVariant(base, subtype) == null)
+            base.addVariant(subtype);
+        }
+        Key key = new Key(base, types, isOut);
+        table.put(key, new SubtypeRef(subtype, key));
+      }
+    }
+    return (T) subtype;
+  }
+
+  /**
+   * Returns the number of subtypes interned.
+   */
+  static int size() {
+    expungeCollected();
+    return table.size();
+  }
+
+  /*
+   * Returns the variant of <code>base</code> having the parameter or out types, or null.
+   */
+  private static Type findVariant(Type base, Type[] types, boolean isOut) {
+    if(!base.isBaseType())
+      return null;
+    for(Type v = base.variantChain; v != null; v = v.variantChain) {
+      if(isOut ? v.hasOutType(types[0]) : v.hasParameterTypes(types))
+        return v;
+    }
+    return null;
+  }
+
+  /*
+   * Returns <code>subtype</code> if it's on <code>base</code>'s variant chain, else null.
+   */
+  private static Type findVariant(Type base, Type subtype) {
+    for(Type v = base.variantChain; v != null; v = v.variantChain) {
+      if(v == subtype)
+        return v;
+    }
+    return null;
+  }
+
+  /*
+   * Removes the entries whose subtypes have been collected.
+   */
+  private static void expungeCollected() {
+    for(Reference<? extends Type> r; (r = collected.poll()) != null;)
+      table.remove(((SubtypeRef) r).key, r);
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Key</code> is a (base type, parameter types) tuple, compared by identity. Stored keys
+   * hold their types weakly; probes hold them strongly, to avoid allocating references, and are
+   * reused.
+   ****************************************************************************/
+  static final class Key
+  {
+    private Object base;
+
+    private Object[] types;
+
+    private boolean isOut;
+
+    private final boolean isWeak;
+
+    private int hash;
+
+    /* Creates a probe, aimed by probe(). */
+    Key() {
+      this.isWeak = false;
+    }
+
+    /* Creates a stored key, holding its types weakly. */
+    Key(Type base, Type[] types, boolean isOut) {
+      this.isWeak = true;
+      this.isOut = isOut;
+      this.hash = hash(base, types, isOut);
+      this.base = new WeakReference<>(base);
+      Object[] refs = new Object[types.length];
+      for(int i = 0; i < types.length; i++)
+        refs[i] = new WeakReference<>(types[i]);
+      this.types = refs;
+    }
+
+    /*
+     * Aims this probe at (base, types, isOut), returning it.
+     */
+    Key probe(Type base, Type[] types, boolean isOut) {
+      this.base = base;
+      this.types = types;
+      this.isOut = isOut;
+      this.hash = hash(base, types, isOut);
+      return this;
+    }
+
+    /*
+     * Drops this probe's types.
+     */
+    void clear() {
+      base = null;
+      types = null;
+    }
+
+    private static int hash(Type base, Type[] types, boolean isOut) {
+      int h = System.identityHashCode(base) * 31 + (isOut ? 1 : 0);
+      for(Type t : types)
+        h = h * 31 + System.identityHashCode(t);
+      return h;
+    }
+
+    private Object base() {
+      return isWeak ? ((WeakReference<?>) base).get() : base;
+    }
+
+    private Object type(int i) {
+      return isWeak ? ((WeakReference<?>) types[i]).get() : types[i];
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if(o == this)
+        return true;
+      if(!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      if(k.hash != hash || k.isOut != isOut || k.types.length != types.length)
+        return false;
+      Object b = base();
+      if(b == null || b != k.base())
+        return false;
+      for(int i = 0; i < types.length; i++) {
+        Object t = type(i);
+        if(t == null || t != k.type(i))
+          return false;
+      }
+      return true;
+    }
+  }
+
+  /****************************************************************************
+   * <code>SubtypeRef</code> weakly references an interned subtype, remembering its key so the
+   * entry can be expunged once the subtype is collected.
+   ****************************************************************************/
+  static final class SubtypeRef
+    extends WeakReference<Type>
+  {
+    final Key key;
+
+    SubtypeRef(Type subtype, Key key) {
+      super(subtype, collected);
+      this.key = key;
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.typeSystem.core.Type;
+
+/****************************************************************************
+ * <code>SyntheticTypeGraph</code> is the benchmarks' fixture: a type graph of configurable depth
+ * and size, built over the booted type system without depending on any application's types.
+ * <p>
+ * Depth comes from a chain of inheriting classes, <code>L0 &lt;- L1 &lt;- ... &lt;- L7</code>;
+ * size from the parametric subtypes of <code>ArrayList</code> and <code>HashMap</code> over the
+ * chain's types, then from <code>ArrayList</code>s nested over those, which are created (and
+ * interned) until the graph has the requested number of types.
+ * <p>
+ * The graph's built over whatever type system the JVM has booted; it doesn't boot one, so JMH's
+ * forked JVMs must be launched by the platform's bootstrap (or one that calls it) for the fixture
+ * to build.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class SyntheticTypeGraph
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** The deepest supported chain. */
+  public static final int MAX_DEPTH = 8;
+
+  /* The chain's classes, root first. */
+  private static final Class<?>[] CHAIN = {
+      L0.class, L1.class, L2.class, L3.class, L4.class, L5.class, L6.class, L7.class};
+
+  /** The chain's types, root first. */
+  public final Type<?>[] chain;
+
+  /** All the graph's types: the chain's, then the parametric subtypes. */
+  public final List<Type<?>> types = new ArrayList<>();
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  /**
+   * Builds a graph whose inheritance chain is <code>depth</code> deep, and that has exactly
+   * <code>size</code> types, which must be at least <code>depth</code>.
+   */
+  public SyntheticTypeGraph(int depth, int size) {
+    if(!Type.isTypeSystemOnline())
+      throw new AbortException("the type system must be booted before building the benchmark fixture");
+    if(depth < 1 || depth > MAX_DEPTH)
+      throw new AbortException("depth must be in [1, %d]: %d", MAX_DEPTH, depth);
+    if(size < depth)
+      throw new AbortException("size must be at least the depth, %d: %d", depth, size);
+
+    chain = new Type<?>[depth];
+    for(int i = 0; i < depth; i++) {
+      chain[i] = Type.forClass(CHAIN[i]);
+      chain[i].wireUp();
+      types.add(chain[i]);
+    }
+
+    Type<?> list = Type.forClass(ArrayList.class);
+    Type<?> map = Type.forClass(HashMap.class);
+    for(int i = 0; i < depth && types.size() < size; i++) {
+      types.add(list.subtypeHavingParamTypes(new Type[] {chain[i]}));
+      for(int j = 0; j < depth && types.size() < size; j++)
+        types.add(map.subtypeHavingParamTypes(new Type[] {chain[i], chain[j]}));
+    }
+
+    // beyond the chain's products, nest lists over the parametric subtypes, each of which is new
+    for(int k = depth; types.size() < size; k++)
+      types.add(list.subtypeHavingParamTypes(new Type[] {types.get(k)}));
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns the chain's root type.
+   */
+  public Type<?> root() {
+    return chain[0];
+  }
+
+  /**
+   * Returns the chain's deepest type.
+   */
+  public Type<?> leaf() {
+    return chain[chain.length - 1];
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /* The inheritance chain; public static, so that Type.instance() can construct them. */
+  public static class L0 {}
+
+  public static class L1
+    extends L0 {}
+
+  public static class L2
+    extends L1 {}
+
+  public static class L3
+    extends L2 {}
+
+  public static class L4
+    extends L3 {}
+
+  public static class L5
+    extends L4 {}
+
+  public static class L6
+    extends L5 {}
+
+  public static class L7
+    extends L6 {}
+
+}
@@ -0,0 +1,84 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.system.stats;
+
+/****************************************************************************
+ * <code>TextMetricsExporter</code> renders the published stats in the Prometheus text exposition
+ * format, for serving from whatever HTTP endpoint the deployment scrapes: counters as
+ * <code>counter</code>s, and histograms as cumulative <code>histogram</code> buckets.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class TextMetricsExporter
+  implements MetricsExporter
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* Prefix of all metric names. */
+  private final String prefix;
+
+  private volatile TypeStats stats;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public TextMetricsExporter() {
+    this("ebase_");
+  }
+
+  public TextMetricsExporter(String prefix) {
+    this.prefix = prefix;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Override
+  public void publish(TypeStats stats) {
+    this.stats = stats;
+  }
+
+  @Override
+  public void close() {
+    stats = null;
+  }
+
+  /**
+   * Returns the current metrics in text exposition format, or an empty string if nothing's
+   * published.
+   */
+  public String scrape() {
+    TypeStats s = stats;
+    if(s == null)
+      return "";
+    StringBuilder out = new StringBuilder(2048);
+    s.forEachCounter((name, value) -> {
+      out.append("# TYPE ").append(prefix).append(name).append(" counter\n");
+      out.append(prefix).append(name).append(' ').append(value).append('\n');
+    });
+    for(StripedHistogram h : s.histograms()) {
+      String name = prefix + h.name;
+      out.append("# TYPE ").append(name).append(" histogram\n");
+      long cumulative = 0;
+      for(int i = 0; i < StripedHistogram.BUCKETS - 1; i++) {
+        // emit empty buckets too: scrapers expect a histogram's bucket set to be fixed
+        cumulative += h.bucketCount(i);
+        out.append(name).append("_bucket{le=\"").append(StripedHistogram.bucketBound(i) - 1)
+            .append("\"} ").append(cumulative).append('\n');
+      }
+      out.append(name).append("_bucket{le=\"+Inf\"} ").append(h.count()).append('\n');
+      out.append(name).append("_sum ").append(h.sum()).append('\n');
+      out.append(name).append("_count ").append(h.count()).append('\n');
+    }
+    return out.toString();
+  }
+
+}
@@ -0,0 +1,134 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.ess.ebase.core.exceptions.AbortException;
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.translation.IValueTranslator;
+import net.ess.ebase.typeSystem.translation.SliceTranslator;
+import net.ess.ebase.typeSystem.translation.TranslatorRegistry;
+
+/****************************************************************************
+ * <code>TranslatorBenchmark</code> compares decoding and encoding a CSV row of primitive-typed
+ * fields by the registry's translators, which take substrings and return strings, with the
+ * {@link SliceTranslator}s, which decode slices of the row and encode into a reused buffer. Run
+ * with the GC profiler to compare allocation rates.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslatorBenchmark
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* The row's field classes, and a row of their values. */
+  private static final Class<?>[] FIELD_CLASSES = {
+      long.class, int.class, double.class, boolean.class, double.class, long.class};
+
+  private static final String ROW = "9007199254740,42,1234.5625,true,-0.125,-17";
+
+  private Type<?>[] types;
+
+  private IValueTranslator[] registryTranslators;
+
+  private SliceTranslator[] sliceTranslators;
+
+  /* The row's field boundaries: field i is [starts[i], ends[i]). */
+  private int[] starts, ends;
+
+  private Object[] values;
+
+  private final StringBuilder buffer = new StringBuilder(128);
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Setup
+  public void setUp() {
+    if(!Type.isTypeSystemOnline())
+      throw new AbortException("the type system must be booted before running this benchmark");
+    int n = FIELD_CLASSES.length;
+    types = new Type<?>[n];
+    registryTranslators = new IValueTranslator[n];
+    sliceTranslators = new SliceTranslator[n];
+    for(int i = 0; i < n; i++) {
+      types[i] = Type.forClass(FIELD_CLASSES[i]);
+      registryTranslators[i] = TranslatorRegistry.instance.apply(types[i]);
+      sliceTranslators[i] = SliceTranslator.forType(types[i]);
+    }
+    starts = new int[n];
+    ends = new int[n];
+    for(int i = 0, pos = 0; i < n; i++) {
+      int comma = ROW.indexOf(',', pos);
+      starts[i] = pos;
+      ends[i] = comma < 0 ? ROW.length() : comma;
+      pos = ends[i] + 1;
+    }
+    values = new Object[n];
+    for(int i = 0; i < n; i++)
+      values[i] = sliceTranslators[i].decode(ROW, starts[i], ends[i]);
+  }
+
+  @Benchmark
+  public void decodeRegistry(Blackhole bh) {
+    for(int i = 0; i < types.length; i++)
+      bh.consume(registryTranslators[i].decode(ROW.substring(starts[i], ends[i]), types[i]));
+  }
+
+  @Benchmark
+  public void decodeSlices(Blackhole bh) {
+    for(int i = 0; i < types.length; i++)
+      bh.consume(sliceTranslators[i].decode(ROW, starts[i], ends[i]));
+  }
+
+  @Benchmark
+  public String encodeRegistry() {
+    StringBuilder out = new StringBuilder();
+    for(int i = 0; i < types.length; i++) {
+      if(i > 0)
+        out.append(',');
+      out.append(registryTranslators[i].encode(values[i]));
+    }
+    return out.toString();
+  }
+
+  @Benchmark
+  public int encodeSlices() {
+    StringBuilder out = buffer;
+    out.setLength(0);
+    for(int i = 0; i < types.length; i++) {
+      if(i > 0)
+        out.append(',');
+      sliceTranslators[i].encodeTo(values[i], out);
+    }
+    return out.length();
+  }
+
+}
@@ -11,6 +11,10 @@ import static net.ess.ebase.util.BasicUtils.uncapitalize;
 
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -20,12 +24,16 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.TypeVariable;
 import java.text.Format;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ClassInfoList;
@@ -50,7 +58,6 @@ import net.ess.ebase.data.UniqueOrderedAccumulator;
 import net.ess.ebase.execution.Command;
 import net.ess.ebase.execution.control.Condition;
 import net.ess.ebase.execution.control.LifecycleStateCondition;
-import net.ess.ebase.flows.EndOfFlowException;
 import net.ess.ebase.flows.IntFlow;
 import net.ess.ebase.flows.Source;
 import net.ess.ebase.functions.Function;
@@ -60,11 +67,11 @@ import net.ess.ebase.graphs.Node;
 import net.ess.ebase.langs.commonCore.Identifier;
 import net.ess.ebase.lifecycles.EntityBuilder;
 import net.ess.ebase.lifecycles.LifecycleState;
-import net.ess.ebase.math.foundations.IncrementalSet;
-import net.ess.ebase.math.foundations.IntersectionSet;
 import net.ess.ebase.math.foundations.UnknownSetExtentException;
 import net.ess.ebase.models.Model;
 import net.ess.ebase.structures.IStructure;
+import net.ess.ebase.system.stats.FlightRecorderEvents.TypeSketch;
+import net.ess.ebase.system.stats.FlightRecorderEvents.TypeWire;
 import net.ess.ebase.system.stats.TypeStats;
 import net.ess.ebase.text.TextFlow;
 import net.ess.ebase.transport.storage.files.IFyle;
@@ -76,6 +83,7 @@ import net.ess.ebase.typeSystem.annotations.PrimaryIdentity;
 import net.ess.ebase.typeSystem.behavior.Behavior;
 import net.ess.ebase.typeSystem.behavior.BehaviorFinder;
 import net.ess.ebase.typeSystem.behavior.BehaviorRegistry;
+import net.ess.ebase.typeSystem.extents.ColumnarExtentSnapshot;
 import net.ess.ebase.typeSystem.extents.StrongTypeExtent;
 import net.ess.ebase.typeSystem.extents.TypeExtent;
 import net.ess.ebase.typeSystem.facets.Attribute;
@@ -84,6 +92,7 @@ import net.ess.ebase.typeSystem.facets.Facet;
 import net.ess.ebase.typeSystem.facets.FacetFlow;
 import net.ess.ebase.typeSystem.facets.FieldFlow;
 import net.ess.ebase.typeSystem.flags.Flag;
+import net.ess.ebase.typeSystem.flags.FlagQuery;
 import net.ess.ebase.typeSystem.flags.FlagManager;
 import net.ess.ebase.typeSystem.functions.FunctionAspect;
 import net.ess.ebase.typeSystem.metatypes.Metatype;
@@ -103,6 +112,7 @@ import net.ess.ebase.typeSystem.structure.TypeAspectSet;
 import net.ess.ebase.typeSystem.structure.TypeInheritance;
 import net.ess.ebase.typeSystem.translation.FormattingTranslator;
 import net.ess.ebase.typeSystem.translation.IValueTranslator;
+import net.ess.ebase.typeSystem.translation.SliceTranslator;
 import net.ess.ebase.typeSystem.translation.TranslatorRegistry;
 import net.ess.ebase.util.ReflectionUtils;
 
@@ -141,8 +151,15 @@ public class Type<T>
   private static Flag[] ILLEGAL_TYPE_TAGS = new Flag[] {FACET, LIST, IMMUTABLE, CONNECTIVE, COMPONENT, GRAPH,
       JCOLLECTION, ATOM, ATTRIBUTE, FUNCTION, MAP, ARRAY};
 
-  /* Tags that are illegal for types. */
-  private static Set<Flag> illegalTags = new HashSet();
+  /* Mask of the tags that are illegal for types. */
+  private static final long ILLEGAL_TAG_MASK = FlagQuery.maskOf(ILLEGAL_TYPE_TAGS);
+
+  /* Masks of flags tested by type predicates. */
+  private static final long LIST_MASK = LIST.mask;
+  private static final long IMMUTABLE_MASK = IMMUTABLE.mask;
+  private static final long INSTANTIABLE_MASK = INSTANTIABLE.mask;
+  private static final long STRUCTURED_MASK = STRUCTURED.mask;
+  private static final long ECOLLECTION_MASK = ECOLLECTION.mask;
 
   /** Typecode extending java.sql.Types denoting classes. */
   static final int TYPE_CLASS = 3000;
@@ -168,7 +185,15 @@ public class Type<T>
   /* The flagGroup type, shared by all types. */
   public static FlagManager groupType;
 
-  protected static TypeComparator typeComparator;
+  /* Each thread's comparator; comparators aren't thread-safe. */
+  protected static final ThreadLocal<TypeComparator> typeComparator =
+      ThreadLocal.withInitial(TypeComparator::new);
+
+  /** Caches the comparison kinds of recently compared type pairs. */
+  public static final TypeComparisonCache comparisonCache = new TypeComparisonCache();
+
+  /* Advanced whenever a type discovers a facet, staling the schema derived from facets before. */
+  private static final AtomicInteger facetEpoch = new AtomicInteger();
 
   /* The empty structure aspect, which is the structure of all non-structure types. */
   protected static StructureAspect emptyStructure = new EmptyStructureAspect();
@@ -195,6 +220,46 @@ public class Type<T>
   /* Map from parameter name to the designated inbound parameter. */
   protected Map<String, TypeParameter> inboundParameters;
 
+  /* Once wired, memoizes parameter() and parameterFlowingTo(), by identifier; allocated on the
+   * first memoized resolution, so types never queried carry no tables. */
+  protected transient Map<Identifier, Object> resolvedParameters;
+  protected transient Map<Identifier, Object> flowingParameters;
+
+  /* Advanced by each invalidation of the parameter tables, so resolutions begun before it aren't
+   * memoized into the tables allocated after it. */
+  private transient volatile int parameterEpoch;
+
+  /* Stands for a null resolution in the parameter tables. */
+  private static final Object NO_PARAMETER = new Object();
+
+  /* Handles on lazily initialized fields, read with acquire and published with release. */
+  private static final VarHandle SUPERTYPE =
+      LazyField.handle(Type.class, "supertype", Type.class);
+  private static final VarHandle FUNCTION_ASPECT =
+      LazyField.handle(Type.class, "functionAspect", FunctionAspect.class);
+  private static final VarHandle BEHAVIORS =
+      LazyField.handle(Type.class, "behaviors", BehaviorRegistry.class);
+  private static final VarHandle SIGNATURE =
+      LazyField.handle(Type.class, "signature", TypeParameterSignature.class);
+  private static final VarHandle METATYPE =
+      LazyField.handle(Type.class, "metatype", Metatype.class);
+  private static final VarHandle TRANSLATOR =
+      LazyField.handle(Type.class, "translator", IValueTranslator.class);
+  private static final VarHandle RESOLVED_PARAMETERS =
+      LazyField.handle(Type.class, "resolvedParameters", Map.class);
+  private static final VarHandle FLOWING_PARAMETERS =
+      LazyField.handle(Type.class, "flowingParameters", Map.class);
+  private static final VarHandle PARAMETER_EPOCH =
+      LazyField.handle(Type.class, "parameterEpoch", int.class);
+  private static final VarHandle LAZY_NULLS =
+      LazyField.handle(Type.class, "lazyNulls", int.class);
+
+  /* Bits of lazyNulls, noting lazy fields resolved to null. */
+  private static final int NULL_SUPERTYPE = 1;
+
+  /* The lazy fields read with LazyField.getOrNull that resolved to null. */
+  private transient int lazyNulls;
+
   /** The registry of this type's behaviors. */
   protected transient BehaviorRegistry behaviors;
 
@@ -208,6 +273,12 @@ public class Type<T>
   /* This type's translator between this type's instances and external text encodings. */
   protected IValueTranslator translator;
 
+  /* This type's persistence schema, computed when wired; recomputed once a facet's discovered. */
+  protected transient volatile PersistencePlan persistencePlan;
+
+  /* This type's columnar view, lazily created. */
+  protected transient TupleType tupleType;
+
   /*----- internal construction-related state -----*/
   /* This type's builder. */
   public TypeBuilder builder;
@@ -215,6 +286,12 @@ public class Type<T>
   /* Chain link on which variants are linked off base. */
   protected Type variantChain;
 
+  /* This type's immediate ancestors, in order of inheritance; replaced whole on each addition,
+   * so it's read without locking. */
+  private transient volatile Type[] ancestors = NO_ANCESTORS;
+
+  private static final Type[] NO_ANCESTORS = new Type[0];
+
   protected boolean explicitlyNamed;
 
   protected boolean annotationsProcessed;
@@ -231,11 +308,6 @@ public class Type<T>
   // ======================================================================
   // Constructors and Initializers
   // ======================================================================
-  static {
-    for(Flag t : ILLEGAL_TYPE_TAGS)
-      illegalTags.add(t);
-  }
-
   // ======================================================================
   // Methods
   // ======================================================================
@@ -262,7 +334,8 @@ public class Type<T>
   }
 
   /**
-   * Returns a traverser on this type's inheritance graph.
+   * Returns a traverser on this type's inheritance graph. Hot paths should instead use a pooled
+   * {@link TypeAncestryWalk}, which allocates nothing.
    */
   public TypeAncestryTraversal ancestryTraverser() {
     wireUp();
@@ -306,16 +379,21 @@ public class Type<T>
    * Returns the behaviorRegistry containing methods defined on the iClass.
    */
   public BehaviorRegistry behaviors() {
-    if(behaviors == null) {
-      if(isBaseType()) {
-        // base types create their own map
-        behaviors = new BehaviorRegistry(this);
-      } else if(supertype() != null) {
-        // variants just use their baseType's map
-        behaviors = supertype.behaviors();
-      }
+    return LazyField.get(this, BEHAVIORS, Type::initBehaviors);
+  }
+
+  /*
+   * Returns a new behavior registry for a base type, or the base type's for a variant.
+   */
+  private BehaviorRegistry initBehaviors() {
+    if(isBaseType()) {
+      // base types create their own map
+      return new BehaviorRegistry(this);
+    } else if(supertype() != null) {
+      // variants just use their baseType's map
+      return supertype.behaviors();
     }
-    return behaviors;
+    return null;
   }
 
   /**
@@ -333,7 +411,7 @@ public class Type<T>
   public Type<?> declaringType() {
     if(iClass != null) {
       Class declaringClass = iClass.getDeclaringClass();
-      return declaringClass != null ? types_.apply(declaringClass) : null;
+      return declaringClass != null ? forClass(declaringClass) : null;
     } else {
       return null;
     }
@@ -411,28 +489,37 @@ public class Type<T>
   public FunctionAspect functionAspect() {
     // if(iClass == EqualityMap.class && isBaseType())
     // armTrap("eqmap");
-    if(functionAspect == null) {
-      // force creating supertype
-      if(supertype == null)
-        supertype();
+    FunctionAspect aspect = (FunctionAspect) FUNCTION_ASPECT.getAcquire(this);
+    if(aspect != null)
+      return aspect;
 
-      // nothing to resolve if not parametric
-      if(signature == null && (supertype == null || supertype.signature == null))
-        return null;
+    // force creating supertype
+    Type<?> st = supertype();
 
-      if(ECollection.class.isAssignableFrom(iClass)) {
-        functionAspect = platform_.containments.containmentFor(iClass);
-      } else {
-        functionAspect = new FunctionAspect();
-      }
-      functionAspect.owner(this);
-      
-      // extract type params from class definition
-      extractClassParameters();
+    // nothing to resolve if not parametric
+    if(signature == null && (st == null || st.signature == null))
+      return null;
+    return LazyField.get(this, FUNCTION_ASPECT, Type::initFunctionAspect);
+  }
 
-      functionAspect.refineSignature(this);
+  /*
+   * Creates and returns the function aspect of this parametric type.
+   */
+  private FunctionAspect initFunctionAspect() {
+    // build the aspect in a local, so it's published (by LazyField) only once fully refined
+    FunctionAspect aspect;
+    if(ECollection.class.isAssignableFrom(iClass)) {
+      aspect = platform_.containments.containmentFor(iClass);
+    } else {
+      aspect = new FunctionAspect();
     }
-    return functionAspect;
+    aspect.owner(this);
+
+    // extract type params from class definition
+    extractClassParameters();
+
+    aspect.refineSignature(this);
+    return aspect;
   }
 
   /**
@@ -562,7 +649,7 @@ public class Type<T>
       if(iClass != null) {
         Class[] innerClasses = iClass.getDeclaredClasses();
         for(int i = 0; i < innerClasses.length; i++)
-          innerTypes.add(types_.apply(innerClasses[i]));
+          innerTypes.add(forClass(innerClasses[i]));
       }
     } catch(TypeNotFoundException e) {
       println(this + ": error fetching inner classes (ignored)");
@@ -572,9 +659,7 @@ public class Type<T>
   }
 
   public Metatype metatype() {
-    if(metatype == null)
-      metatype = platform_.metatypes.apply(iClass);
-    return metatype;
+    return LazyField.get(this, METATYPE, t -> platform_.metatypes.apply(t.iClass));
   }
 
   /**
@@ -584,11 +669,11 @@ public class Type<T>
     if(iClass != null) {
       // if have a iClass, look for declaring class
       Class outerClass = iClass.getEnclosingClass();
-      return outerClass != null ? types_.applyForStructureType(outerClass) : null;
+      return outerClass != null ? forStructureClass(outerClass) : null;
     } else {
       // if no iClass, attempt to find via name analysis
       int dollarIndex = name.lastIndexOf('$');
-      return dollarIndex > -1 ? types_.applyForStructureType(name.substring(0, dollarIndex)) : null;
+      return dollarIndex > -1 ? forStructureName(name.substring(0, dollarIndex)) : null;
     }
   }
 
@@ -672,7 +757,7 @@ public class Type<T>
   }
 
   public boolean isIterable() {
-    return hasFlag(LIST);
+    return meta().hasAll(LIST_MASK);
   }
 
   /**
@@ -733,24 +818,31 @@ public class Type<T>
    * my ancestors.
    */
   public boolean isImmediateSubtypeOf(Type t) {
-    Source<TypeInheritance> supers = outEdges().filter(TypeInheritance.class);
-    for(TypeInheritance ti : supers) {
-      if(ti.target == t)
+    for(Type a : ancestors) {
+      if(a == t)
         return true;
     }
     return false;
   }
 
+  /**
+   * Returns this type's immediate ancestors, i.e. the targets of its inheritance edges, in order
+   * of inheritance. The array's shared, and mustn't be modified.
+   */
+  public Type[] immediateAncestors() {
+    return ancestors;
+  }
+
   /**
    * Returns whether this type's instances are immutable.
    */
   public boolean isImmutable() {
-    return hasFlag(IMMUTABLE);
+    return meta().hasAll(IMMUTABLE_MASK);
   }
 
   @Override
   public boolean isInstantiable() {
-    return hasFlag(INSTANTIABLE);
+    return meta().hasAll(INSTANTIABLE_MASK);
   }
 
   /**
@@ -907,7 +999,7 @@ public class Type<T>
    * typically heterogeneous attributes.
    */
   public boolean isStructured() {
-    return hasFlag(STRUCTURED);
+    return meta().hasAll(STRUCTURED_MASK);
   }
 
   /**
@@ -927,6 +1019,7 @@ public class Type<T>
     if(t == this)
       return true;
 
+    typeStats().comparisons.increment();
     TypeComparisonKind tck = compareWith(t); // hacky patch
     if(tck == null)
       return false;
@@ -990,15 +1083,21 @@ public class Type<T>
   }
 
   /**
-   * Returns the sublist of persistable facets.
+   * Returns the (unmodifiable) sublist of persistable facets.
    */
   public List<Facet> persistableFacets() {
-    ArrayList<Facet> pAtts = new ArrayList<Facet>();
-    for(Facet att : attributes()) {
-      if(att.isPersistable())
-        pAtts.add(att);
-    }
-    return pAtts;
+    return persistencePlan().facetList;
+  }
+
+  /**
+   * Returns this type's persistence plan, computing it if needed, i.e. if none was, or any type has
+   * discovered a facet since.
+   */
+  public PersistencePlan persistencePlan() {
+    PersistencePlan plan = persistencePlan;
+    if(plan == null || !plan.isCurrent())
+      persistencePlan = plan = new PersistencePlan(this);
+    return plan;
   }
 
   public boolean hasPid() {
@@ -1031,6 +1130,7 @@ public class Type<T>
       // check for null address signature
       boolean hasSig = signature != null;
       signature = address.signature;
+      invalidateParameterTables();
       if(iClass == EqualityMap.class && isBaseType())
         armTrap("eqmap");
       if(signature == null && hasSig)
@@ -1120,20 +1220,24 @@ public class Type<T>
             .enableAllInfo()
             .acceptPackages("net.ess").scan()) {
               ClassInfoList controlClasses = scanResult.getSubclasses(iClass);
-              controlClasses.loadClasses().forEach(c -> allSubtypes.add(types_.apply(c)));
+              controlClasses.loadClasses().forEach(c -> allSubtypes.add(forClass(c)));
           };
     }
     return allSubtypes;
   }
 
   public TypeParameterSignature signature() {
-    if(signature == null) {
-      signature = primaryId().signature();
-      
-      if(signature != null) 
-        Assertion.check(functionAspect == null);
-    }
-    return signature;
+    return LazyField.get(this, SIGNATURE, Type::initSignature);
+  }
+
+  /*
+   * Returns the signature of this type's primary id.
+   */
+  private TypeParameterSignature initSignature() {
+    TypeParameterSignature sig = primaryId().signature();
+    if(sig != null)
+      Assertion.check(functionAspect == null);
+    return sig;
   }
 
   /**
@@ -1147,23 +1251,27 @@ public class Type<T>
    * Returns this type's supertype, lazily initializing it.
    */
   public Type<?> supertype() {
-    // bind supertype if null and there's a superclass
-    if(supertype == null) {
-      Type ancestor = null;
-      switch(kind()) {
-        case baseType:
-          Class sc = iClass.getSuperclass();
-          if(sc != null)
-            ancestor = types_.apply(sc);
-          break;
-        case subtype:
-        case aliasType:
-          ancestor = types_.apply(iClass);
-          Assertion.check(ancestor != this);
-      }
-      if(ancestor != null)
-        addAncestor(ancestor);
+    return LazyField.getOrNull(this, SUPERTYPE, LAZY_NULLS, NULL_SUPERTYPE, Type::initSupertype);
+  }
+
+  /*
+   * Binds the supertype if there's a superclass, returning it.
+   */
+  private Type<?> initSupertype() {
+    Type ancestor = null;
+    switch(kind()) {
+      case baseType:
+        Class sc = iClass.getSuperclass();
+        if(sc != null)
+          ancestor = forClass(sc);
+        break;
+      case subtype:
+      case aliasType:
+        ancestor = forClass(iClass);
+        Assertion.check(ancestor != this);
     }
+    if(ancestor != null)
+      addAncestor(ancestor);
     return supertype;
   }
 
@@ -1175,9 +1283,10 @@ public class Type<T>
   }
 
   public IValueTranslator translator() {
-    if(translator == null)
-      initTranslator();
-    return translator;
+    return LazyField.get(this, TRANSLATOR, t -> {
+      t.initTranslator();
+      return t.translator;
+    });
   }
 
   public void translator(IValueTranslator newTranslator) {
@@ -1185,14 +1294,25 @@ public class Type<T>
     // traceAlways("WARNING: replacing existing translator %s with %s", translator, newTranslator);
     // new Throwable().printStackTrace();
     // }
-    translator = newTranslator;
+    LazyField.set(this, TRANSLATOR, newTranslator);
   }
 
   /**
    * Returns a record type providing a columnar view of this type.
    */
   public TupleType tupleType() {
-    return new TupleType(this);
+    TupleType t = tupleType;
+    if(t == null)
+      tupleType = t = new TupleType(this);
+    return t;
+  }
+
+  /**
+   * Returns a columnar snapshot of the persistable attributes of the instances currently in
+   * this type's extent.
+   */
+  public ColumnarExtentSnapshot columnarSnapshot() {
+    return ColumnarExtentSnapshot.of(this);
   }
 
   /**
@@ -1252,6 +1372,8 @@ public class Type<T>
    * type's supertype. Returns the resulting new inheritance, or null if already exists.
    */
   public synchronized TypeInheritance addAncestor(Type ancestor) {
+    comparisonCache.invalidate();
+    RegistryAudit.touched(this);
     TypeInheritance inheritance = new TypeInheritance(this, ancestor);
     inheritanceAdded(inheritance);
     return inheritance;
@@ -1296,11 +1418,15 @@ public class Type<T>
     explicitlyNamed = false;
     extent = null;
     functionAspect = null;
+    lazyNulls = 0;
     inboundParameters = null;
+    resolvedParameters = null;
+    flowingParameters = null;
     prepared = null;
     registered = null;
     signature = null;
     supertype = null;
+    ancestors = NO_ANCESTORS;
     variantChain = null;
   }
 
@@ -1352,7 +1478,7 @@ public class Type<T>
       plus(ECOLLECTION);
     }
 
-    if(Collection.class.isAssignableFrom(iClass) && !hasFlag(ECOLLECTION)) {
+    if(Collection.class.isAssignableFrom(iClass) && !meta().hasAll(ECOLLECTION_MASK)) {
       plus(JCOLLECTION);
     }
 
@@ -1448,7 +1574,7 @@ public class Type<T>
     meta().plus(flags);
     if(iClass == LifecycleState.class) {
       Flag t0 = flags[0];
-      if(illegalTags.contains(t0)) {
+      if((t0.mask & ILLEGAL_TAG_MASK) != 0) {
         println("%s shouldn't contain flag %s", this, t0);
       }
     }
@@ -1467,10 +1593,15 @@ public class Type<T>
    */
   public void initTranslator() {
     if(translator == null) {
-      translator = 
-          isSubtype() 
-            ? supertype.translator() 
-            : TranslatorRegistry.instance.apply(this);
+      if(isSubtype()) {
+        translator = supertype.translator();
+      } else {
+        // slice translators take precedence for the primitive and structured types they support;
+        // the registry supplies the rest
+        translator = SliceTranslator.forType(this);
+        if(translator == null)
+          translator = TranslatorRegistry.instance.apply(this);
+      }
     }
   }
 
@@ -1521,19 +1652,40 @@ public class Type<T>
 
   @Override
   public void doSketchingAction() {
+    TypeSketch event = new TypeSketch();
+    event.begin();
+    long start = System.nanoTime();
     if(supertype != null)
       supertype.sketch();
     super.doSketchingAction();
-    typeStats().sketchedTypes++;
+    typeStats().sketchedTypes.increment();
+    typeStats().sketchNanos.recordSince(start);
+    event.end();
+    if(event.shouldCommit()) {
+      event.typeName = String.valueOf(name);
+      event.commit();
+    }
   }
 
   @Override
   public void doWiringAction() {
+    TypeWire event = new TypeWire();
+    event.begin();
+    long start = System.nanoTime();
     if(supertype != null)
       supertype.wireUp();
     super.doWiringAction();
     functionAspect();
-    typeStats().wiredTypes++;
+    if(isStructured())
+      persistencePlan = new PersistencePlan(this);
+    typeStats().wiredTypes.increment();
+    typeStats().wireNanos.recordSince(start);
+    RegistryAudit.touched(this);
+    event.end();
+    if(event.shouldCommit()) {
+      event.typeName = String.valueOf(name);
+      event.commit();
+    }
   }
 
   /*
@@ -1558,9 +1710,10 @@ public class Type<T>
           java.lang.reflect.Type bound = bounds[0];
           if(bound == Object.class)
             continue;
-          Type newVT = types_.apply(bound);
+          Type newVT = forReflectedType(bound);
           TypeParameter tp = signature.apply(argName);
           tp.refineValueType(newVT);
+          invalidateParameterTables();
         }
       }
     }
@@ -1576,7 +1729,7 @@ public class Type<T>
     primaryId().kind(TypeKind.subtype);
     primaryId().name(name);
     Assertion.check(isSubtype());
-    typeStats().subtypes++;
+    typeStats().subtypes.increment();
   }
 
   /**
@@ -1659,6 +1812,57 @@ public class Type<T>
       aspects.add(aspect);
   }
 
+  // ---------------------------
+  // Type Access
+  // ---------------------------
+  /**
+   * Returns the type of instances of <code>c</code>. Lookups by types themselves go through this
+   * and its siblings below, so they're all counted as typeLookups.
+   */
+  public static <C> Type<C> forClass(Class<C> c) {
+    platform_.typeSystem.typeStats().typeLookups.increment();
+    return (Type<C>) types_.apply(c);
+  }
+
+  /*
+   * Returns the type designated by reflected type <code>t</code>, e.g. a type variable's bound.
+   */
+  private static Type forReflectedType(java.lang.reflect.Type t) {
+    platform_.typeSystem.typeStats().typeLookups.increment();
+    return types_.apply(t);
+  }
+
+  /*
+   * Returns the structure type of class <code>c</code>.
+   */
+  private static StructureType<?> forStructureClass(Class c) {
+    platform_.typeSystem.typeStats().typeLookups.increment();
+    return types_.applyForStructureType(c);
+  }
+
+  /*
+   * Returns the structure type of the class named <code>className</code>.
+   */
+  private static StructureType<?> forStructureName(String className) {
+    platform_.typeSystem.typeStats().typeLookups.increment();
+    return types_.applyForStructureType(className);
+  }
+
+  /**
+   * Returns the entity type of instances of entity class <code>c</code>.
+   */
+  public static EntityType forEntityClass(Class<?> c) {
+    platform_.typeSystem.typeStats().typeLookups.increment();
+    return types_.applyForEntityType(c);
+  }
+
+  /**
+   * Returns whether the type system is online, hence forClass() may be called.
+   */
+  public static boolean isTypeSystemOnline() {
+    return types_ != null;
+  }
+
   // ---------------------------
   // Instantiation
   // ---------------------------
@@ -1668,6 +1872,7 @@ public class Type<T>
   public T instance() {
     if(isAbstract())
       throw new AbortException("attempting to instantiate an abstract type: %s", name);
+    typeStats().instantiations.increment();
 
     if(IFyle.class.isAssignableFrom(iClass))
       return newInstance(iClass);
@@ -1686,6 +1891,32 @@ public class Type<T>
     }
   }
 
+  /**
+   * Returns a handle, typed <code>()Object</code>, creating new instances of this type as
+   * {@link #instance()} does, for callers instantiating many at once: resolving the handle once
+   * and invoking it per instance avoids the per-call reflective lookup. Instantiations made
+   * through the handle aren't counted in the type's stats; callers count them.
+   */
+  public MethodHandle instanceConstructor() {
+    if(isAbstract())
+      throw new AbortException("attempting to instantiate an abstract type: %s", name);
+    try {
+      Class enclosing = iClass.getEnclosingClass();
+      boolean inner = enclosing != null && !IFyle.class.isAssignableFrom(iClass)
+          && !Modifier.isStatic(iClass.getModifiers());
+      Constructor<T> cons = inner
+          ? iClass.getDeclaredConstructor(new Class[] {enclosing})
+          : iClass.getDeclaredConstructor();
+      cons.setAccessible(true);
+      MethodHandle handle = MethodHandles.lookup().unreflectConstructor(cons);
+      if(inner)
+        handle = MethodHandles.insertArguments(handle, 0, (Object) null);
+      return handle.asType(MethodType.methodType(Object.class));
+    } catch(ReflectiveOperationException e) {
+      throw new AbortException("can't resolve a constructor of %s: %s", name, e);
+    }
+  }
+
   /**
    * Creates and returns a new instance of the submodel indicated by <code>subModelSelector</code>.
    */
@@ -1714,18 +1945,22 @@ public class Type<T>
   // Subtype Access
   // ---------------------------
   /**
-   * Returns the subtype having instances of <code>oType</code>, in effect narrowing the out.
+   * Returns the subtype having instances of <code>oType</code>, in effect narrowing the out. The
+   * subtype is interned, so repeated requests return the same subtype.
    */
   public Type<?> subtypeHavingOutType(Type oType) {
-    return (Type<?>) new SubtypeBuilder(this).out(oType).build();
+    return SubtypeInterner.intern(this, new Type[] {oType}, true,
+        () -> (Type<?>) new SubtypeBuilder(this).out(oType).build());
   }
 
   /**
    * Returns the parametric subtype of this type having parameters with values =
-   * <code>paramTypes</code>, and names = parallel signature.
+   * <code>paramTypes</code>, and names = parallel signature. The subtype is interned, so repeated
+   * requests return the same subtype.
    */
   public Type<T> subtypeHavingParamTypes(Type[] paramTypes) {
-    return new SubtypeBuilder(this).paramTypes(paramTypes).build();
+    return SubtypeInterner.intern(this, paramTypes, false,
+        () -> new SubtypeBuilder(this).paramTypes(paramTypes).build());
   }
 
   // ---------------------------
@@ -1766,6 +2001,11 @@ public class Type<T>
       Assertion.check(functionAspect == null);  // verify that functionAspect unbound
       supertype = ancestor;
     }
+    synchronized(this) {
+      Type[] a = Arrays.copyOf(ancestors, ancestors.length + 1);
+      a[a.length - 1] = ancestor;
+      ancestors = a;
+    }
 
     // inherit flags
     meta().inherit(supertype.meta());
@@ -1774,7 +2014,20 @@ public class Type<T>
   /**
    * Receives notification that <code>facet</code> has been discovered as a member of this type.
    */
-  public void facetDiscovered(Facet facet) {}
+  public void facetDiscovered(Facet facet) {
+    facetEpoch.incrementAndGet();
+    RegistryAudit.touched(this);
+  }
+
+  /**
+   * Returns the facet epoch, which advances whenever any type discovers a facet. Schema derived
+   * from facets (persistence plans, primary id accessors) is stamped with the epoch read before
+   * deriving it, and rederived on use once stale, so discovery itself costs one increment, however
+   * many types inherit the facet.
+   */
+  public static int facetEpoch() {
+    return facetEpoch.get();
+  }
 
   // ---------------------------
   // Extent Management
@@ -1885,16 +2138,20 @@ public class Type<T>
    * Adds <code>instance</code> to extent if bound.
    */
   public void registerInstance(T instance) {
-    if(extent != null)
+    if(extent != null) {
       extent.add(instance);
+      typeStats().extentRegistrations.increment();
+    }
   }
 
   /**
    * Removes <code>instance</code> from extent if bound.
    */
   public void unregisterInstance(T instance) {
-    if(extent != null)
+    if(extent != null) {
       extent.remove(instance);
+      typeStats().extentUnregistrations.increment();
+    }
   }
 
   // ---------------------------
@@ -1904,13 +2161,91 @@ public class Type<T>
    * Returns this type's type parameter that's designated by <code>id</code>.
    */
   public TypeParameter parameter(Identifier id) {
-    return signature() != null ? signature.apply(id) : null;
+    Map<Identifier, Object> table = (Map<Identifier, Object>) RESOLVED_PARAMETERS.getAcquire(this);
+    Object p = table != null ? table.get(id) : null;
+    if(p != null)
+      return p == NO_PARAMETER ? null : (TypeParameter) p;
+    int epoch = parameterEpoch;
+    TypeParameter resolved = signature() != null ? signature.apply(id) : null;
+    memoizeParameter(RESOLVED_PARAMETERS, epoch, id, resolved);
+    return resolved;
   }
 
   /**
    * Returns the parameter that's designated by <code>targetId</code>, or has an ancestor so designated.
    */
   public TypeParameter parameterFlowingTo(Identifier targetId) {
+    Map<Identifier, Object> table = (Map<Identifier, Object>) FLOWING_PARAMETERS.getAcquire(this);
+    Object p = table != null ? table.get(targetId) : null;
+    if(p != null)
+      return p == NO_PARAMETER ? null : (TypeParameter) p;
+    int epoch = parameterEpoch;
+    TypeParameter resolved = resolveParameterFlowingTo(targetId);
+    memoizeParameter(FLOWING_PARAMETERS, epoch, targetId, resolved);
+    return resolved;
+  }
+
+  /*
+   * Memoizes resolved as the resolution of id in the table held in field, provided the tables are
+   * stable, and haven't been invalidated since epoch was read, before resolving. The epoch is
+   * checked after fetching the table, and invalidation advances it before discarding the tables,
+   * so a stale resolution either lands in a discarded table, or is dropped.
+   */
+  private void memoizeParameter(VarHandle field, int epoch, Identifier id, TypeParameter resolved) {
+    if(!isParameterTableStable())
+      return;
+    Map<Identifier, Object> table = parameterTable(field);
+    if(parameterEpoch == epoch)
+      table.put(id, resolved != null ? resolved : NO_PARAMETER);
+  }
+
+  /*
+   * Returns the parameter table held in field, allocating it if unset.
+   */
+  private Map<Identifier, Object> parameterTable(VarHandle field) {
+    return LazyField.get(this, field, t -> new ConcurrentHashMap<Identifier, Object>(4));
+  }
+
+  /*
+   * Returns whether parameter resolutions may be memoized, i.e. this type is wired, so its
+   * signature and ancestry are settled.
+   */
+  private boolean isParameterTableStable() {
+    return meta != null && meta.isWired();
+  }
+
+  /**
+   * Discards the memoized parameter resolutions of this type and its subtypes, e.g. when its
+   * signature changes; subtypes' resolutions flow through their supertypes' signatures.
+   */
+  public void invalidateParameterTables() {
+    invalidateParameterTables(Collections.newSetFromMap(new IdentityHashMap<>()));
+  }
+
+  /*
+   * Discards the parameter tables of this type and its subtypes, skipping types already in
+   * visited.
+   */
+  private void invalidateParameterTables(Set<Type> visited) {
+    if(!visited.add(this))
+      return;
+    PARAMETER_EPOCH.getAndAdd(this, 1);
+    if(resolvedParameters != null || flowingParameters != null) {
+      LazyField.set(this, RESOLVED_PARAMETERS, null);
+      LazyField.set(this, FLOWING_PARAMETERS, null);
+      RegistryAudit.touched(this);
+    }
+    // types still being built have no subtypes yet
+    if(meta == null)
+      return;
+    for(Type subtype : localSubtypes())
+      subtype.invalidateParameterTables(visited);
+  }
+
+  /*
+   * Resolves parameterFlowingTo(targetId), walking up the supertype chain.
+   */
+  private TypeParameter resolveParameterFlowingTo(Identifier targetId) {
     TypeParameter u = parameter(targetId);
     if(u != null) {
 //      println("%s: paramFlowingTo(%s) = %s", this, targetId, u);
@@ -1973,42 +2308,31 @@ public class Type<T>
    * Returns the kind of comparison this type has with type <code>t</code>.
    */
   public TypeComparisonKind compareInnerWith(Type other) {
-    // if lifecycles are on, create and run traversers on both types' ancestors
+    // if lifecycles are on, walk both types' ancestors with pooled walks
     if(platform_.lifecycles.lifecycleManagerOnline.hasOccurred()) {
-      Type p = this, q = other;
-      TypeAncestryTraversal a0 = ancestryTraverser();
-      a0.name("a0");
-      TypeAncestryTraversal a1 = other.ancestryTraverser();
-      a1.name("a1");
-
-      // create intersection sets for each traverser
-      IncrementalSet s0 = new IncrementalSet(a0);
-      s0.name = "s0";
-      IncrementalSet s1 = new IncrementalSet(a1);
-      s1.name = "s1";
-      
-      // get the intersection, if any
-      IntersectionSet<Type> is = new IntersectionSet(s0, s1);
-      Type min = is.firstIntersection();
-      // traceAlways(".min(%s) -> %s", other, min);
-      
-      // if intersection is at top of lattice, types were incomparable
-      if(min == null ||min == types_.object_)
-        return INCOMPARABLE;
-      if(min == other)
-        return SUB;
-      if(min == this)
-        return SUPER;
+      try(TypeAncestryWalk a0 = TypeAncestryWalk.acquire(this);
+          TypeAncestryWalk a1 = TypeAncestryWalk.acquire(other)) {
+        // get the intersection, if any
+        Type min = a0.firstIntersectionWith(a1);
+        // traceAlways(".min(%s) -> %s", other, min);
+
+        // if intersection is at top of lattice, types were incomparable
+        if(min == null || min == types_.object_)
+          return INCOMPARABLE;
+        if(min == other)
+          return SUB;
+        if(min == this)
+          return SUPER;
 
-      // otherwise, 
-      try {
-        for(;;) {
-          if(a0.get() == other)
+        // otherwise, finish the walks looking for either type in the other's ancestry
+        for(Type t; (t = a0.next()) != null;) {
+          if(t == other)
             return SUB;
-          if(a1.get() == this)
+        }
+        for(Type t; (t = a1.next()) != null;) {
+          if(t == this)
             return SUPER;
         }
-      } catch(EndOfFlowException e) {
         return INCOMPARABLE;
       }
     } 
@@ -2047,7 +2371,13 @@ public class Type<T>
         }
       }
     } else {
-      return comparisonWith(t).kind;
+      TypeComparisonKind kind = comparisonCache.get(this, t);
+      if(kind == null) {
+        int epoch = comparisonCache.epoch();
+        kind = comparisonWith(t).kind;
+        comparisonCache.put(this, t, kind, epoch);
+      }
+      return kind;
     }
   }
 
@@ -2055,9 +2385,7 @@ public class Type<T>
    * Returns the comparison this type has with type <code>t</code>.
    */
   public TypeComparison comparisonWith(Type t) {
-    if(typeComparator == null)
-      typeComparator = new TypeComparator();
-    return typeComparator.compare(this, t);
+    return typeComparator.get().compare(this, t);
   }
 
   /**
@@ -2283,18 +2611,12 @@ public class Type<T>
   // ---------------------------
   /**
    * Returns the composite types that this type references, restricting them to just those
-   * referenced via persistable attributes if <code>persistable</code> is <tt>true</tt>.
+   * referenced via persistable attributes if <code>persistable</code> is <tt>true</tt>. The set
+   * is shared, hence rejects updates.
    */
   public IdentitySet<Type> getReferencedStructuredTypes(boolean persistable) {
-    IdentitySet<Type> referencedTypes = new IdentitySet();
-    for(Attribute attribute : attributes()) {
-      if(persistable && !attribute.isPersistable())
-        continue;
-      Type valueType = attribute.out();
-      if(valueType.isStructured())
-        referencedTypes.add(valueType);
-    }
-    return referencedTypes;
+    PersistencePlan plan = persistencePlan();
+    return persistable ? plan.persistableReferencedTypes : plan.referencedTypes;
   }
 
   // ---------------------------
@@ -2366,6 +2688,28 @@ public class Type<T>
     return value.toString();
   }
 
+  /**
+   * Returns the value encoded by <code>s</code> from <code>start</code> to <code>end</code>,
+   * without allocating a substring when this type's translator is a {@link SliceTranslator}.
+   */
+  public Object decode(CharSequence s, int start, int end) {
+    IValueTranslator t = translator();
+    if(t instanceof SliceTranslator)
+      return ((SliceTranslator) t).decode(s, start, end);
+    return t.decode(s.subSequence(start, end).toString(), this);
+  }
+
+  /**
+   * Appends the encoding of <code>value</code> to <code>out</code>.
+   */
+  public void encodeTo(Object value, StringBuilder out) {
+    IValueTranslator t = translator();
+    if(t instanceof SliceTranslator)
+      ((SliceTranslator) t).encodeTo(value, out);
+    else if(value != null)
+      out.append(t.encode(value));
+  }
+
   // ---------------------------
   // Auditing
   // ---------------------------
@@ -2387,6 +2731,13 @@ public class Type<T>
     return new TypeAudit(this);
   }
 
+  /**
+   * Audits <code>types</code> in parallel, returning the report. See {@link RegistryAudit}.
+   */
+  public static RegistryAudit.Report auditAll(Collection<? extends Type> types) {
+    return new RegistryAudit().audit(types);
+  }
+
   // ---------------------------
   // Printing
   // ---------------------------
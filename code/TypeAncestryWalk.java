@@ -0,0 +1,267 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.core;
+
+import java.util.Arrays;
+
+/****************************************************************************
+ * <code>TypeAncestryWalk</code> is a reusable, breadth-first walk over a type's inheritance graph,
+ * starting with the type itself. Walks are drawn from a small per-thread pool and returned to it
+ * when closed, so they're normally used as resources:
+ *
+ * <pre>
+ * try(TypeAncestryWalk w = TypeAncestryWalk.acquire(t)) {
+ *   for(Type a; (a = w.next()) != null;)
+ *     ...
+ * }
+ * </pre>
+ *
+ * A walk keeps its queue and visited set in arrays that it retains across uses, and resets the
+ * visited set by advancing a stamp rather than clearing it. A type's ancestors are read from its
+ * {@link Type#immediateAncestors} array rather than by filtering its edges, so once a thread's
+ * walks have grown to fit its graphs, a walk allocates nothing. Closing a walk drops its
+ * references to the types it reached, so pooled walks don't keep types alive.
+ * <p>
+ * Walks are confined to the thread that acquired them.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class TypeAncestryWalk
+  implements AutoCloseable
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /* Initial capacity of the queue and visited set; a power of 2. */
+  private static final int INITIAL_CAPACITY = 32;
+
+  /* Maximum number of idle walks each thread keeps. */
+  private static final int POOL_SIZE = 8;
+
+  /* Each thread's idle walks. */
+  private static final ThreadLocal<Pool> pools = ThreadLocal.withInitial(Pool::new);
+
+  /* The walk's queue of types; those before head have been yielded. */
+  private Type[] queue = new Type[INITIAL_CAPACITY];
+
+  private int head, tail;
+
+  /* The visited set, open-addressed; a slot is occupied iff its stamp is current. */
+  private Type[] keys = new Type[INITIAL_CAPACITY * 2];
+
+  private int[] stamps = new int[INITIAL_CAPACITY * 2];
+
+  /* Each occupied slot's type's position in the queue. */
+  private int[] positions = new int[INITIAL_CAPACITY * 2];
+
+  private int stamp;
+
+  /* Whether this walk is out of the pool. */
+  private boolean inUse;
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  private TypeAncestryWalk() {
+  }
+
+  /**
+   * Returns a walk of <code>root</code>'s ancestry, drawn from the current thread's pool.
+   */
+  public static TypeAncestryWalk acquire(Type root) {
+    Pool pool = pools.get();
+    TypeAncestryWalk w = pool.size > 0 ? pool.walks[--pool.size] : new TypeAncestryWalk();
+    pool.walks[pool.size] = null;
+    w.inUse = true;
+    return w.reset(root);
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Restarts this walk at <code>root</code>, returning this walk.
+   */
+  public TypeAncestryWalk reset(Type root) {
+    Arrays.fill(queue, 0, tail, null);
+    head = tail = 0;
+    if(++stamp == 0) {
+      // stamps wrapped; clear them so no stale slot looks current
+      Arrays.fill(stamps, 0);
+      Arrays.fill(keys, null);
+      stamp = 1;
+    }
+    if(root != null) {
+      root.wireUp();
+      enqueue(root);
+    }
+    return this;
+  }
+
+  /**
+   * Returns the next type in the walk, or null when the walk's exhausted.
+   */
+  public Type next() {
+    if(head == tail)
+      return null;
+    Type t = queue[head++];
+    for(Type a : t.immediateAncestors())
+      enqueue(a);
+    return t;
+  }
+
+  /**
+   * Returns whether <code>t</code> has been reached by this walk, i.e. yielded or queued.
+   */
+  public boolean reached(Type t) {
+    return positionOf(t) >= 0;
+  }
+
+  /**
+   * Returns the first type yielded by either this walk or <code>other</code> that the other has
+   * already yielded, stepping them alternately, or null if they share no type. Both walks are
+   * left positioned after the intersection.
+   */
+  public Type firstIntersectionWith(TypeAncestryWalk other) {
+    for(;;) {
+      Type t0 = next();
+      if(t0 != null && other.yielded(t0))
+        return t0;
+      Type t1 = other.next();
+      if(t1 != null && yielded(t1))
+        return t1;
+      if(t0 == null && t1 == null)
+        return null;
+    }
+  }
+
+  /**
+   * Returns this walk to the current thread's pool.
+   */
+  @Override
+  public void close() {
+    if(!inUse)
+      return;
+    inUse = false;
+    forgetReached();
+    head = tail = 0;
+    Pool pool = pools.get();
+    if(pool.size < POOL_SIZE)
+      pool.walks[pool.size++] = this;
+  }
+
+  /*
+   * Drops the references to the reached types, which are exactly those queued, from the queue and
+   * the visited set. Their slots' stamps stay current until the next reset(), so probes still
+   * pass over emptied slots.
+   */
+  private void forgetReached() {
+    int mask = keys.length - 1;
+    for(int j = 0; j < tail; j++) {
+      Type t = queue[j];
+      for(int i = slotOf(t, mask); stamps[i] == stamp; i = (i + 1) & mask) {
+        if(keys[i] == t) {
+          keys[i] = null;
+          break;
+        }
+      }
+      queue[j] = null;
+    }
+  }
+
+  /*
+   * Returns whether t has been yielded, as opposed to merely queued.
+   */
+  private boolean yielded(Type t) {
+    int p = positionOf(t);
+    return p >= 0 && p < head;
+  }
+
+  /*
+   * Returns t's position in the queue, or -1 if it hasn't been reached.
+   */
+  private int positionOf(Type t) {
+    int mask = keys.length - 1;
+    for(int i = slotOf(t, mask);; i = (i + 1) & mask) {
+      if(stamps[i] != stamp)
+        return -1;
+      if(keys[i] == t)
+        return positions[i];
+    }
+  }
+
+  /*
+   * Queues t unless it's already been reached.
+   */
+  private void enqueue(Type t) {
+    if(t == null || !mark(t))
+      return;
+    if(tail == queue.length)
+      queue = Arrays.copyOf(queue, tail * 2);
+    queue[tail++] = t;
+  }
+
+  /*
+   * Adds t to the visited set, returning false if it was already there.
+   */
+  private boolean mark(Type t) {
+    if(tail * 2 >= keys.length)
+      growVisited();
+    int mask = keys.length - 1;
+    int i = slotOf(t, mask);
+    for(; stamps[i] == stamp; i = (i + 1) & mask) {
+      if(keys[i] == t)
+        return false;
+    }
+    keys[i] = t;
+    stamps[i] = stamp;
+    positions[i] = tail;
+    return true;
+  }
+
+  /*
+   * Doubles the visited set, re-adding the reached types, which are exactly those queued.
+   */
+  private void growVisited() {
+    keys = new Type[keys.length * 2];
+    stamps = new int[stamps.length * 2];
+    positions = new int[positions.length * 2];
+    stamp = 1;
+    int mask = keys.length - 1;
+    for(int j = 0; j < tail; j++) {
+      Type t = queue[j];
+      int i = slotOf(t, mask);
+      while(stamps[i] == stamp)
+        i = (i + 1) & mask;
+      keys[i] = t;
+      stamps[i] = stamp;
+      positions[i] = j;
+    }
+  }
+
+  private static int slotOf(Type t, int mask) {
+    int h = System.identityHashCode(t) * 0x9E3779B1;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Pool</code> is a thread's stack of idle walks.
+   ****************************************************************************/
+  private static final class Pool
+  {
+    final TypeAncestryWalk[] walks = new TypeAncestryWalk[POOL_SIZE];
+
+    int size;
+  }
+
+}
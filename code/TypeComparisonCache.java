@@ -0,0 +1,152 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.typeSystem.core;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/****************************************************************************
+ * <code>TypeComparisonCache</code> is a bounded, concurrent, direct-mapped cache of the
+ * comparison kinds of (type, type) pairs, so that repeatedly comparing the same pairs costs a
+ * single probe rather than a trip through the <code>TypeComparator</code>.
+ * <p>
+ * A pair's slot is chosen by a primitive hash of both types' identity hashes. Each slot holds an
+ * immutable entry, so entries are safely published by a plain store, and a colliding pair simply
+ * replaces the slot's entry. Entries hold their types weakly, so caching a comparison never keeps
+ * a type alive.
+ * <p>
+ * Entries are stamped with the cache's epoch, which advances whenever type inheritance changes,
+ * invalidating all entries at once. Callers read the epoch before comparing, and pass it to
+ * {@link #put}, so a comparison that raced with an invalidation is dropped rather than cached as
+ * current.
+ * <p>
+ * Hits and misses are counted in <code>LongAdder</code>s, and exported with the type system's
+ * other metrics via <code>TypeStats</code>.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public final class TypeComparisonCache
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Default number of slots. */
+  public static final int DEFAULT_SIZE = 4096;
+
+  /* The slots; a power of 2 in length. */
+  private final Entry[] slots;
+
+  private final int mask;
+
+  /* The current epoch; entries of earlier epochs are stale. */
+  private final AtomicInteger epoch = new AtomicInteger();
+
+  /* Probe outcomes. */
+  private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public TypeComparisonCache() {
+    this(DEFAULT_SIZE);
+  }
+
+  public TypeComparisonCache(int size) {
+    int n = Integer.highestOneBit(Math.max(16, size - 1) << 1);
+    slots = new Entry[n];
+    mask = n - 1;
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Returns the cached comparison kind of <code>a</code> with <code>b</code>, or null if not
+   * cached.
+   */
+  public TypeComparisonKind get(Type a, Type b) {
+    Entry e = slots[indexOf(a, b)];
+    if(e != null && e.epoch == epoch.get() && e.get() == a && e.b.get() == b) {
+      hits.increment();
+      return e.kind;
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Caches <code>kind</code> as the comparison kind of <code>a</code> with <code>b</code>, as
+   * computed in <code>epoch</code>, which was read (via {@link #epoch()}) before computing it.
+   * Discards the comparison if the cache has since been invalidated.
+   */
+  public void put(Type a, Type b, TypeComparisonKind kind, int epoch) {
+    if(kind != null && epoch == this.epoch.get())
+      slots[indexOf(a, b)] = new Entry(a, b, kind, epoch);
+  }
+
+  /**
+   * Invalidates all entries, e.g. when type inheritance changes.
+   */
+  public void invalidate() {
+    epoch.incrementAndGet();
+  }
+
+  /**
+   * Returns the current epoch, which advances on each invalidation.
+   */
+  public int epoch() {
+    return epoch.get();
+  }
+
+  /**
+   * Returns the number of probes that hit.
+   */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of probes that missed.
+   */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  private int indexOf(Type a, Type b) {
+    int h = System.identityHashCode(a) * 0x9E3779B1 + System.identityHashCode(b);
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  // ======================================================================
+  // Inner Classes
+  // ======================================================================
+  /****************************************************************************
+   * <code>Entry</code> is an immutable cached comparison, weakly referencing its first type
+   * (as itself) and its second.
+   ****************************************************************************/
+  static final class Entry
+    extends WeakReference<Type>
+  {
+    final WeakReference<Type> b;
+
+    final TypeComparisonKind kind;
+
+    final int epoch;
+
+    Entry(Type a, Type b, TypeComparisonKind kind, int epoch) {
+      super(a);
+      this.b = new WeakReference<>(b);
+      this.kind = kind;
+      this.epoch = epoch;
+    }
+  }
+
+}
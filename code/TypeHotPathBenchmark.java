@@ -0,0 +1,132 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.ess.ebase.typeSystem.core.SubtypeCheckSite;
+import net.ess.ebase.typeSystem.core.Type;
+import net.ess.ebase.typeSystem.flags.Flagset;
+
+/****************************************************************************
+ * <code>TypeHotPathBenchmark</code> measures the type system's hot paths over a
+ * {@link SyntheticTypeGraph}: subtype tests, both direct and through {@link SubtypeCheckSite}s
+ * (as hot call sites testing against a fixed target do), instantiation, behavior lookup, and flag
+ * access.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypeHotPathBenchmark
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /** Depth of the fixture's inheritance chain. */
+  @Param({"2", "8"})
+  public int depth;
+
+  /** Number of types in the fixture. */
+  @Param({"16", "64"})
+  public int size;
+
+  private SyntheticTypeGraph graph;
+
+  private Type<?> leaf, root, unrelated;
+
+  private SubtypeCheckSite isRoot, isUnrelated;
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  @Setup
+  public void setUp() {
+    graph = new SyntheticTypeGraph(depth, size);
+    leaf = graph.leaf();
+    root = graph.root();
+    unrelated = graph.types.get(graph.types.size() - 1);
+    isRoot = new SubtypeCheckSite(root);
+    isUnrelated = new SubtypeCheckSite(unrelated);
+  }
+
+  @Benchmark
+  public boolean isSubtypeOfAncestor() {
+    return leaf.isSubtypeOf(root);
+  }
+
+  @Benchmark
+  public boolean isSubtypeOfUnrelated() {
+    return leaf.isSubtypeOf(unrelated);
+  }
+
+  @Benchmark
+  public void isSubtypeOfAll(Blackhole bh) {
+    for(Type<?> t : graph.types)
+      bh.consume(leaf.isSubtypeOf(t));
+  }
+
+  @Benchmark
+  public boolean siteIsSubtypeOfAncestor() {
+    return isRoot.test(leaf);
+  }
+
+  @Benchmark
+  public boolean siteIsSubtypeOfUnrelated() {
+    return isUnrelated.test(leaf);
+  }
+
+  /*
+   * A megamorphic site: each test misses the site's last type, so this measures the miss path.
+   */
+  @Benchmark
+  public void siteAllSubtypesOfAncestor(Blackhole bh) {
+    for(Type<?> t : graph.types)
+      bh.consume(isRoot.test(t));
+  }
+
+  @Benchmark
+  public Object instance() {
+    return leaf.instance();
+  }
+
+  @Benchmark
+  public Object behavior() {
+    return leaf.behavior("toString");
+  }
+
+  @Benchmark
+  public Flagset flags() {
+    return leaf.meta().flags();
+  }
+
+  @Benchmark
+  public boolean isStructured() {
+    return leaf.isStructured();
+  }
+
+}
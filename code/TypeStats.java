@@ -0,0 +1,145 @@
+/***************************************************************************
+ * Copyright 1990-2023 Ensemble Software Systems, Inc., All Rights Reserved This software is the
+ * confidential and proprietary information of Ensemble Software Systems ("Confidential
+ * Information"), and contains the valuable trade secrets of Ensemble Software Systems. The software
+ * is protected under copyright laws as an unpublished work of Ensemble Software Systems. Notice is
+ * for informational purposes only and does not imply publication. You shall not disclose such
+ * Confidential Information and shall use it only in accordance with the terms of the license
+ * agreement you entered into with Ensemble Software Systems, and for no other use.
+ ****************************************************************************/
+package net.ess.ebase.system.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ObjLongConsumer;
+
+import net.ess.ebase.typeSystem.core.Type;
+
+/****************************************************************************
+ * <code>TypeStats</code> collects the type system's metrics: type construction (sketching,
+ * wiring, subtyping), and the hot paths of type lookup, instantiation, comparison, and extent
+ * maintenance.
+ * <p>
+ * Counters are <code>LongAdder</code>s, which stripe updates over cells padded against false
+ * sharing, so any thread may update them without contention, races, or cache line ping-pong.
+ * Durations are kept in {@link StripedHistogram}s. Metrics are published by
+ * {@link MetricsExporter}s, which enumerate them via {@link #forEachCounter} and
+ * {@link #histograms}.
+ *
+ * @author Richard Steiger
+ ****************************************************************************/
+public class TypeStats
+{
+  // ======================================================================
+  // Fields
+  // ======================================================================
+  /*----- type construction -----*/
+  /** Types sketched. */
+  public final LongAdder sketchedTypes = new LongAdder();
+
+  /** Types wired. */
+  public final LongAdder wiredTypes = new LongAdder();
+
+  /** Subtypes built. */
+  public final LongAdder subtypes = new LongAdder();
+
+  /** Durations of sketching actions, in nanoseconds. */
+  public final StripedHistogram sketchNanos = new StripedHistogram("type_sketch_nanos");
+
+  /** Durations of wiring actions, in nanoseconds. */
+  public final StripedHistogram wireNanos = new StripedHistogram("type_wire_nanos");
+
+  /*----- hot paths -----*/
+  /** Types looked up by class, reflected type, or class name, via Type's static lookups. */
+  public final LongAdder typeLookups = new LongAdder();
+
+  /** Instances created by types. */
+  public final LongAdder instantiations = new LongAdder();
+
+  /** Type comparisons (subtype tests) performed. */
+  public final LongAdder comparisons = new LongAdder();
+
+  /** Instances registered in extents. */
+  public final LongAdder extentRegistrations = new LongAdder();
+
+  /** Instances unregistered from extents. */
+  public final LongAdder extentUnregistrations = new LongAdder();
+
+  /* Gauges read from other components, by exported name. */
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  /* The histograms, for enumeration. */
+  private final List<StripedHistogram> histograms =
+      Collections.unmodifiableList(List.of(sketchNanos, wireNanos));
+
+  // ======================================================================
+  // Constructors and Initializers
+  // ======================================================================
+  public TypeStats() {
+    gauge("type_comparison_cache_hits_total", () -> Type.comparisonCache.hitCount());
+    gauge("type_comparison_cache_misses_total", () -> Type.comparisonCache.missCount());
+  }
+
+  // ======================================================================
+  // Methods
+  // ======================================================================
+  /**
+   * Exports <code>reader</code>'s value as the counter named <code>name</code>.
+   */
+  public void gauge(String name, LongSupplier reader) {
+    gauges.put(name, reader);
+  }
+
+  /**
+   * Applies <code>action</code> to each counter's exported name and current value.
+   */
+  public void forEachCounter(ObjLongConsumer<String> action) {
+    action.accept("types_sketched_total", sketchedTypes.sum());
+    action.accept("types_wired_total", wiredTypes.sum());
+    action.accept("subtypes_built_total", subtypes.sum());
+    action.accept("type_lookups_total", typeLookups.sum());
+    action.accept("type_instantiations_total", instantiations.sum());
+    action.accept("type_comparisons_total", comparisons.sum());
+    action.accept("extent_registrations_total", extentRegistrations.sum());
+    action.accept("extent_unregistrations_total", extentUnregistrations.sum());
+    gauges.forEach((name, reader) -> action.accept(name, reader.getAsLong()));
+  }
+
+  /**
+   * Returns the histograms.
+   */
+  public List<StripedHistogram> histograms() {
+    return histograms;
+  }
+
+  /**
+   * Returns the number of instances currently registered in extents.
+   */
+  public long extentSize() {
+    return extentRegistrations.sum() - extentUnregistrations.sum();
+  }
+
+  /**
+   * Resets all metrics.
+   */
+  public void reset() {
+    for(LongAdder a : new LongAdder[] {sketchedTypes, wiredTypes, subtypes, typeLookups,
+        instantiations, comparisons, extentRegistrations, extentUnregistrations})
+      a.reset();
+    for(StripedHistogram h : histograms)
+      h.reset();
+  }
+
+  @Override
+  public String toString() {
+    List<String> parts = new ArrayList<>();
+    forEachCounter((name, value) -> parts.add(name + "=" + value));
+    return "TypeStats" + parts;
+  }
+
+}